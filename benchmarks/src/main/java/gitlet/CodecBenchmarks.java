@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** Java serialization against Codec on synthetic commits and a branch map,
+ *  one object per operation, cycling through COMMITS commits so the JIT cannot
+ *  specialize on a single one. Nothing touches a repository. The setup prints
+ *  the average size of each form once. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmarks {
+
+    @Param({"10000"})
+    public int commits;
+
+    @Param({"100"})
+    public int branchCount;
+
+    private final List<Commit> built = new ArrayList<>();
+    private final List<byte[]> serialized = new ArrayList<>();
+    private final List<byte[]> encoded = new ArrayList<>();
+    private Branches branches;
+    private byte[] serializedBranches;
+    private byte[] encodedBranches;
+    private int next;
+
+    @Setup
+    public void buildCommits() {
+        Random random = new Random(42);
+        String parent = null;
+        for (int i = 0; i < commits; i++) {
+            Commit commit = new Commit();
+            commit.message = "Commit number " + i + " touching " + random.nextInt(100) + " files";
+            commit.timestamp = "Sat Oct 17 12:00:00 2026 +0000";
+            commit.tree = ObjectId.fromHex(randomHash(random));
+            commit.parentHash = parent == null ? null : ObjectId.fromHex(parent);
+            commit.parent2Hash = i % 10 == 9 ? ObjectId.fromHex(randomHash(random)) : null;
+            commit.hash = randomHash(random);
+            parent = commit.hash;
+            built.add(commit);
+            serialized.add(serialize(commit));
+            encoded.add(Codec.encodeCommit(commit));
+        }
+        branches = new Branches(parent);
+        for (int i = 1; i < branchCount; i++) {
+            branches.point("feature-" + i, randomHash(random));
+        }
+        serializedBranches = serialize(branches);
+        encodedBranches = Codec.encodeBranches(branches);
+        System.out.printf("commit: %d bytes serialized, %d bytes encoded; "
+            + "branches: %d bytes serialized, %d bytes encoded%n",
+            totalLength(serialized) / commits, totalLength(encoded) / commits,
+            serializedBranches.length, encodedBranches.length);
+    }
+
+    // the index of the commit the next operation works on
+    private int next() {
+        next = next + 1 == commits ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public byte[] serializeCommit() {
+        return serialize(built.get(next()));
+    }
+
+    @Benchmark
+    public byte[] encodeCommit() {
+        return Codec.encodeCommit(built.get(next()));
+    }
+
+    @Benchmark
+    public Commit deserializeCommit() {
+        return deserialize(serialized.get(next()), Commit.class);
+    }
+
+    @Benchmark
+    public Commit decodeCommit() {
+        int i = next();
+        return Codec.decodeCommit(built.get(i).hash, encoded.get(i));
+    }
+
+    @Benchmark
+    public byte[] serializeBranches() {
+        return serialize(branches);
+    }
+
+    @Benchmark
+    public byte[] encodeBranches() {
+        return Codec.encodeBranches(branches);
+    }
+
+    @Benchmark
+    public Branches deserializeBranches() {
+        return deserialize(serializedBranches, Branches.class);
+    }
+
+    @Benchmark
+    public Branches decodeBranches() {
+        return Codec.decodeBranches(encodedBranches);
+    }
+
+    private static long totalLength(List<byte[]> data) {
+        long total = 0;
+        for (byte[] bytes : data) {
+            total += bytes.length;
+        }
+        return total;
+    }
+
+    private static String randomHash(Random random) {
+        byte[] raw = new byte[PackFile.HASH_BYTES];
+        random.nextBytes(raw);
+        return toHex(raw);
+    }
+}
@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** Adding, checking out and packing a few large files, where streaming,
+ *  compression and deltas matter more than the number of files. Set up like
+ *  RepositoryBenchmarks, one forked JVM per benchmark. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LargeBlobBenchmarks {
+
+    @Param({"8"})
+    public int files;
+
+    @Param({"1048576", "16777216"})
+    public int blobBytes;
+
+    private Path dir;
+    private PrintStream stdout;
+    private SyntheticRepo repo;
+    private boolean onMaster = true;
+    private int edits;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        dir = Files.createTempDirectory("gitlet-bench");
+        System.setProperty("user.dir", dir.toString());
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        repo = SyntheticRepo.generate(files, 4, 1, blobBytes, 42);
+        Repository.branch("old");
+        Repository.branchCheckOut("old");
+        Repository.reset(repo.base);
+        Repository.branchCheckOut("master");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        System.setOut(stdout);
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NewVersion {
+        String name;
+
+        @Setup(Level.Invocation)
+        public void write(LargeBlobBenchmarks bench) {
+            name = SyntheticRepo.fileName(bench.edits++ % bench.files);
+            writeContents(join(Repository.CWD, name), bench.repo.text(bench.blobBytes));
+        }
+    }
+
+    @Benchmark
+    public void addLarge(NewVersion version) {
+        Repository.add(List.of(version.name));
+    }
+
+    @Benchmark
+    public void checkoutLarge() {
+        Repository.branchCheckOut(onMaster ? "old" : "master");
+        onMaster = !onMaster;
+    }
+
+    @Benchmark
+    public void gc() {
+        Repository.gc(Gc.DEFAULT_GRACE);
+    }
+}
@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** One benchmark per command path, each on a synthetic repository built by
+ *  SyntheticRepo in a fresh temporary directory. Every benchmark runs in its
+ *  own forked JVM, because Repository.CWD is fixed the first time Repository
+ *  is loaded.
+ *
+ *  Numbers are for warm, in-process calls (the caches of a daemon); JVM start
+ *  is not included. Command output goes to a null stream.
+ *
+ *  Run with: java -jar benchmarks/target/benchmarks.jar -rf json -rff results.json */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmarks {
+
+    @Param({"100", "2000"})
+    public int files;
+
+    @Param({"200"})
+    public int commits;
+
+    @Param({"1", "4"})
+    public int branches;
+
+    @Param({"1024"})
+    public int blobBytes;
+
+    private Path dir;
+    private PrintStream stdout;
+    private SyntheticRepo repo;
+    private String mergeWith;
+    private boolean onMaster = true;
+    private int edits;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        dir = Files.createTempDirectory("gitlet-bench");
+        System.setProperty("user.dir", dir.toString());
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        repo = SyntheticRepo.generate(files, commits, branches, blobBytes, 42);
+        // a branch at the base commit, so checkout has every edited file to rewrite
+        Repository.branch("old");
+        Repository.branchCheckOut("old");
+        Repository.reset(repo.base);
+        Repository.branchCheckOut("master");
+        mergeWith = branches > 1 ? "b1" : "side";
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        System.setOut(stdout);
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void status() {
+        Repository.status();
+    }
+
+    @Benchmark
+    public void log() {
+        Repository.log(LogFilter.parse(List.of()));
+    }
+
+    @Benchmark
+    public void globalLog() {
+        Repository.globalLog(LogFilter.parse(List.of()));
+    }
+
+    @Benchmark
+    public void find() {
+        Repository.find("base", false);
+    }
+
+    @State(Scope.Thread)
+    public static class ModifiedFile {
+        String name;
+
+        @Setup(Level.Invocation)
+        public void modify(RepositoryBenchmarks bench) {
+            name = SyntheticRepo.fileName(bench.edits++ % bench.files);
+            writeContents(join(Repository.CWD, name), "edit " + bench.edits + "\n");
+        }
+    }
+
+    @Benchmark
+    public void addOne(ModifiedFile file) {
+        Repository.add(List.of(file.name));
+    }
+
+    @State(Scope.Thread)
+    public static class StagedFile {
+        @Setup(Level.Invocation)
+        public void stage(RepositoryBenchmarks bench, ModifiedFile file) {
+            Repository.add(List.of(file.name));
+        }
+    }
+
+    @Benchmark
+    public void commit(StagedFile staged) {
+        Repository.commit("benchmark commit");
+    }
+
+    @Benchmark
+    public void checkoutBranch() {
+        Repository.branchCheckOut(onMaster ? "old" : "master");
+        onMaster = !onMaster;
+    }
+
+    @Benchmark
+    public Commit splitPoint() {
+        Branches refs = Repository.readBranches();
+        return Repository.splitPoint(ObjectStore.readCommit(refs.tip("master")),
+            ObjectStore.readCommit(refs.tip(mergeWith)));
+    }
+
+    @State(Scope.Thread)
+    public static class UnmergedMaster {
+        @Setup(Level.Invocation)
+        public void rewind(RepositoryBenchmarks bench) {
+            Repository.reset(bench.repo.tip);
+        }
+    }
+
+    @Benchmark
+    public void merge(UnmergedMaster rewound) {
+        Repository.merge(mergeWith);
+    }
+}
@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Builds repositories of a given shape for the benchmarks, through the same
+ *  Repository calls the commands use. Repository.CWD is fixed when Repository
+ *  is first loaded, so callers point user.dir at an empty directory before
+ *  calling generate, once per JVM.
+ *
+ *  The repository gets FILES text files of about BLOB_BYTES each, committed as
+ *  "base", followed by COMMITS commits spread round-robin over BRANCHES
+ *  branches (master, b1, b2, ...), each editing a few random files. Finally a
+ *  branch "side" gets one commit that master does not have, and master gets one
+ *  that side does not have, so there is always something to merge. */
+public class SyntheticRepo {
+
+    // files edited by each synthetic commit
+    static final int EDITS_PER_COMMIT = 3;
+
+    private final Random random;
+    private final int files;
+    private final int blobBytes;
+
+    /** Hash of the "base" commit every branch starts from. */
+    String base;
+    /** Hash of the tip of master once generated. */
+    String tip;
+
+    private SyntheticRepo(int files, int blobBytes, long seed) {
+        this.random = new Random(seed);
+        this.files = files;
+        this.blobBytes = blobBytes;
+    }
+
+    static SyntheticRepo generate(int files, int commits, int branches, int blobBytes, long seed) {
+        SyntheticRepo repo = new SyntheticRepo(files, blobBytes, seed);
+        repo.build(commits, branches);
+        return repo;
+    }
+
+    static String fileName(int i) {
+        return "file" + i + ".txt";
+    }
+
+    private void build(int commits, int branches) {
+        Repository.init();
+        for (int i = 0; i < files; i++) {
+            writeContents(join(Repository.CWD, fileName(i)), text(blobBytes));
+        }
+        Repository.add(List.of("."));
+        Repository.commit("base");
+        base = Repository.currentCommit().hash;
+
+        List<String> names = new ArrayList<>();
+        names.add("master");
+        for (int b = 1; b < branches; b++) {
+            names.add("b" + b);
+            Repository.branch("b" + b);
+        }
+        String current = "master";
+        for (int c = 0; c < commits; c++) {
+            String branch = names.get(c % names.size());
+            if (!branch.equals(current)) {
+                Repository.branchCheckOut(branch);
+                current = branch;
+            }
+            edit("commit " + c + " on " + branch);
+        }
+        if (!current.equals("master")) {
+            Repository.branchCheckOut("master");
+        }
+
+        Repository.branch("side");
+        Repository.branchCheckOut("side");
+        writeContents(join(Repository.CWD, "side.txt"), text(blobBytes));
+        Repository.add(List.of("side.txt"));
+        Repository.commit("side only");
+        Repository.branchCheckOut("master");
+        writeContents(join(Repository.CWD, "master.txt"), text(blobBytes));
+        Repository.add(List.of("master.txt"));
+        Repository.commit("master only");
+        tip = Repository.currentCommit().hash;
+    }
+
+    // appends a line to a few random files and commits them with MESSAGE
+    void edit(String message) {
+        List<String> changed = new ArrayList<>();
+        for (int e = 0; e < Math.min(EDITS_PER_COMMIT, files); e++) {
+            String name = fileName(random.nextInt(files));
+            File file = join(Repository.CWD, name);
+            writeContents(file, readContents(file), message + "\n");
+            changed.add(name);
+        }
+        Repository.add(changed);
+        Repository.commit(message);
+    }
+
+    // about LENGTH bytes of lines of random words
+    String text(int length) {
+        StringBuilder text = new StringBuilder(length + 80);
+        while (text.length() < length) {
+            for (int w = 0; w < 8; w++) {
+                text.append(Integer.toString(random.nextInt(1 << 20), 36)).append(' ');
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
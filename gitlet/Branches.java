@@ -1,14 +1,60 @@
 package gitlet;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map;
 
 public class Branches implements Serializable {
 
-    HashMap<String, String> branches;
+    // pinned to the value Java derived for the original class, so old branch files stay readable
+    private static final long serialVersionUID = -9126355381958653313L;
+
+    // the stored form: a HashMap from branch name to hex commit id
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("branches", HashMap.class),
+    };
+
+    HashMap<String, ObjectId> branches;
     // name -> hash
     public Branches(String masterHash) {
         branches = new HashMap<>();
-        branches.put("master", masterHash);
+        point("master", masterHash);
+    }
+
+    // no branches at all; for decoding
+    Branches() {
+        branches = new HashMap<>();
+    }
+
+    // the commit BRANCH points at, or null if there is no such branch
+    String tip(String branch) {
+        ObjectId id = branches.get(branch);
+        return id == null ? null : id.toHex();
+    }
+
+    void point(String branch, String commitHash) {
+        branches.put(branch, ObjectId.fromHex(commitHash));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        Map<?, ?> stored = (Map<?, ?>) in.readFields().get("branches", null);
+        branches = new HashMap<>();
+        for (Map.Entry<?, ?> branch : stored.entrySet()) {
+            point((String) branch.getKey(), (String) branch.getValue());
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        HashMap<String, String> stored = new HashMap<>();
+        for (String branch : branches.keySet()) {
+            stored.put(branch, tip(branch));
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("branches", stored);
+        out.writeFields();
     }
 }
@@ -0,0 +1,37 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static gitlet.Utils.*;
+
+/** Direct buffers of STREAM_BUFFER bytes for moving object data between files
+ *  without going through the heap. Direct buffers are slow to allocate and
+ *  are only freed by the collector, so up to MAX_POOLED of them are kept for
+ *  reuse; checkout workers take and return them concurrently.
+ *
+ *  Usage:
+ *      ByteBuffer buffer = BufferPool.take();
+ *      try { ... } finally { BufferPool.give(buffer); } */
+public class BufferPool {
+
+    static final int SIZE = STREAM_BUFFER;
+    static final int MAX_POOLED = 16;
+
+    private static final ArrayBlockingQueue<ByteBuffer> FREE = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    // an empty buffer of SIZE bytes
+    static ByteBuffer take() {
+        ByteBuffer buffer = FREE.poll();
+        if (buffer == null) {
+            Trace.count("direct buffers allocated", 1);
+            buffer = ByteBuffer.allocateDirect(SIZE);
+        }
+        return buffer.clear();
+    }
+
+    // hands BUFFER back for reuse; it must not be touched afterwards
+    static void give(ByteBuffer buffer) {
+        FREE.offer(buffer);
+    }
+}
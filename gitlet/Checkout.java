@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static gitlet.Utils.*;
+
+/** Brings the working directory from one tree to another. Only the paths that
+ *  differ between the two trees are touched, and they are written or deleted
+ *  on Workers.count() threads.
+ *
+ *  With the gitlet.verbose system property or the GITLET_VERBOSE environment
+ *  variable set, a line of counters is printed to stderr once done. */
+public class Checkout {
+
+    static boolean verbose() {
+        return Settings.get("gitlet.verbose") != null;
+    }
+
+    // exits if a file the target tree would create is untracked in CWD
+    static void checkUntracked(Map<String, String[]> changes) {
+        for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+            if (entry.getValue()[0] == null && entry.getValue()[1] != null
+                    && join(Repository.CWD, entry.getKey()).exists()) {
+                throw error("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
+            }
+        }
+    }
+
+    /* Applies CHANGES (file name -> {old blob, new blob}, as from Tree.diff) to
+     * CWD: files with no new blob are deleted, the rest are written. The index
+     * learns the blob of every file written. */
+    @SuppressWarnings("try")
+    static void apply(Map<String, String[]> changes) {
+        long start = System.nanoTime();
+        AtomicLong bytes = new AtomicLong();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+            String fileName = entry.getKey();
+            String blob = entry.getValue()[1];
+            File cwdFile = join(Repository.CWD, fileName);
+            tasks.add(() -> {
+                if (blob == null) {
+                    cwdFile.delete();
+                    Index.forget(fileName);
+                    return false;
+                }
+                ObjectStore.copyBlob(blob, cwdFile);
+                Index.record(cwdFile, fileName, blob);
+                bytes.addAndGet(cwdFile.length());
+                return true;
+            });
+        }
+        int written = 0;
+        try (Trace.Span span = Trace.span("checkout files")) {
+            for (boolean wrote : Workers.run(tasks)) {
+                written += wrote ? 1 : 0;
+            }
+        }
+        Trace.count("files checked out", tasks.size());
+        Index.save();
+        if (verbose()) {
+            System.err.printf("checkout: %d written, %d deleted, %d bytes, %d ms, %d workers%n",
+                written, tasks.size() - written, bytes.get(),
+                (System.nanoTime() - start) / 1_000_000, Math.min(Workers.count(), tasks.size()));
+        }
+    }
+}
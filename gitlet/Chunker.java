@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+import static gitlet.Utils.*;
+
+/** Stores large blobs as chunk manifests. A file bigger than threshold()
+ *  is cut into chunks where a gear rolling hash has
+ *  its low AVERAGE_BITS bits all zero (but no shorter than MIN_CHUNK and no
+ *  longer than MAX_CHUNK). The hash shifts left by one per byte, so a byte has
+ *  left the low AVERAGE_BITS bits AVERAGE_BITS bytes later: whether a position
+ *  is a boundary depends on the last 20 bytes only. Boundaries depend on
+ *  content only, so an edit moves at most the chunks around it, and the chunks
+ *  before and after keep their ids.
+ *
+ *  Each chunk is a CHUNK object named by the SHA-1 of its bytes alone, so a
+ *  chunk is stored once however many files and revisions contain it. The blob
+ *  keeps its usual id and is stored in ObjectFormat with the CHUNKED encoding:
+ *  the header's raw length is the file's, and the body is
+ *
+ *      count (4 bytes) | count * (chunk id (20) | chunk length (4))
+ *
+ *  Chunks are hashed, compressed and written by Workers, a batch at a time.
+ *  The threshold is the gitlet.chunkThreshold setting (see Settings) in bytes,
+ *  capped at ObjectStore.MAX_DELTA_SIZE, which is also the default: a higher
+ *  setting is ignored, since blobs above that size are never deltified and
+ *  must be chunked. Tests lower it to chunk small files. */
+public class Chunker {
+
+    static final int MIN_CHUNK = 256 * 1024;
+    static final int MAX_CHUNK = 4 * 1024 * 1024;
+    // boundaries every 2^20 bytes (1 MiB) on average, past MIN_CHUNK
+    static final int AVERAGE_BITS = 20;
+    private static final long MASK = (1L << AVERAGE_BITS) - 1;
+
+    // one random 64-bit value per byte value; fixed, so boundaries never change
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    // files bigger than this many bytes are stored in chunks
+    static long threshold() {
+        return Settings.number("gitlet.chunkThreshold", ObjectStore.MAX_DELTA_SIZE, 0,
+            ObjectStore.MAX_DELTA_SIZE);
+    }
+
+    /* Stores FILE as a blob, in chunks, and returns the blob's id: the sha1 of
+     * its contents, as for any blob. */
+    @SuppressWarnings("try")
+    static String writeBlob(File file) {
+        MessageDigest md = sha1Digest();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        List<byte[]> batch = new ArrayList<>();
+        int batchSize = 2 * Workers.count();
+        int chunks = 0;
+        long length = 0;
+        byte[] chunk = new byte[MAX_CHUNK];
+        int filled = 0;
+        long hash = 0;
+        ByteBuffer in = ByteBuffer.allocate(STREAM_BUFFER);
+        try (Trace.Span span = Trace.span("chunk blob");
+             FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (source.read(in) >= 0) {
+                in.flip();
+                byte[] data = in.array();
+                int n = in.limit();
+                md.update(data, 0, n);
+                length += n;
+                for (int i = 0; i < n; i++) {
+                    chunk[filled++] = data[i];
+                    hash = (hash << 1) + GEAR[data[i] & 0xff];
+                    if (filled == MAX_CHUNK || (filled >= MIN_CHUNK && (hash & MASK) == 0)) {
+                        batch.add(Arrays.copyOf(chunk, filled));
+                        filled = 0;
+                        hash = 0;
+                        if (batch.size() == batchSize) {
+                            chunks += storeChunks(batch, manifest);
+                        }
+                    }
+                }
+                in.clear();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (filled > 0) {
+            batch.add(Arrays.copyOf(chunk, filled));
+        }
+        chunks += storeChunks(batch, manifest);
+        String blob = toHex(md.digest());
+        ByteBuffer body = ByteBuffer.allocate(4 + manifest.size());
+        body.putInt(chunks).put(manifest.toByteArray());
+        ObjectStore.writeChunked(blob, length, body.array());
+        return blob;
+    }
+
+    // stores the chunks in BATCH in parallel, adds their entries to MANIFEST and
+    // empties BATCH; returns how many there were
+    private static int storeChunks(List<byte[]> batch, ByteArrayOutputStream manifest) {
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (byte[] data : batch) {
+            tasks.add(() -> {
+                String id = sha1(data);
+                ObjectStore.write(ObjectStore.CHUNK, id, data);
+                return id;
+            });
+        }
+        List<String> ids = Workers.run(tasks);
+        for (int i = 0; i < ids.size(); i++) {
+            manifest.writeBytes(ObjectId.fromHex(ids.get(i)).toBytes());
+            manifest.writeBytes(ByteBuffer.allocate(4).putInt(batch.get(i).length).array());
+        }
+        Trace.count("chunks", ids.size());
+        int count = batch.size();
+        batch.clear();
+        return count;
+    }
+
+    // ids of the chunks listed in the stored manifest STORED, in order
+    static List<ObjectId> chunkIds(ByteBuffer stored) {
+        ByteBuffer body = stored.duplicate().position(stored.position() + ObjectFormat.HEADER);
+        int count = body.getInt();
+        List<ObjectId> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(ObjectId.read(body));
+            body.getInt();
+        }
+        return ids;
+    }
+
+    // the raw contents of the blob whose stored manifest is STORED
+    static byte[] join(ByteBuffer stored) {
+        long length = ObjectFormat.rawLength(stored);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw error("Blob too large to load; check it out instead.");
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) length);
+        for (ObjectId id : chunkIds(stored)) {
+            data.put(readChunk(id.toHex()));
+        }
+        return data.array();
+    }
+
+    private static byte[] readChunk(String id) {
+        byte[] data = ObjectStore.read(ObjectStore.CHUNK, id);
+        if (data == null) {
+            throw error("Missing chunk %s", id);
+        }
+        return data;
+    }
+}
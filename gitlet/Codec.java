@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The binary formats of commits and of the branch map. Both start with a
+ *  4-byte magic and a version byte, store hashes as 20 raw bytes and strings
+ *  as length-prefixed UTF-8, and are read straight out of a ByteBuffer:
+ *
+ *      commit:   "GCMT" version flags tree [parent] [parent2]
+ *                timestamp (2-byte length) message (4-byte length)
+ *      branches: "GBRN" version count, then per branch name (2-byte length) hash
+ *
+ *  flags says which parents are present. A commit does not store its own
+ *  hash: its id is the SHA-1 of its encoding. Objects written by Java
+ *  serialization before this format existed are still read; "gitlet migrate"
+ *  rewrites them. Commits from before trees existed have only a file list,
+ *  which migrate turns into a tree; anything else refuses to read them. */
+public class Codec {
+
+    static final int COMMIT_MAGIC = 0x47434d54; // "GCMT"
+    static final int BRANCHES_MAGIC = 0x4742524e; // "GBRN"
+    static final byte VERSION = 1;
+
+    static final int HAS_PARENT = 1;
+    static final int HAS_PARENT2 = 2;
+
+    // true if DATA was written by Java serialization
+    static boolean isLegacy(byte[] data) {
+        return data.length >= 2 && data[0] == (byte) 0xac && data[1] == (byte) 0xed;
+    }
+
+    static byte[] encodeCommit(Commit commit) {
+        byte[] timestamp = commit.timestamp.getBytes(StandardCharsets.UTF_8);
+        byte[] message = commit.message.getBytes(StandardCharsets.UTF_8);
+        int flags = (commit.parentHash != null ? HAS_PARENT : 0)
+            | (commit.parent2Hash != null ? HAS_PARENT2 : 0);
+        int parents = Integer.bitCount(flags);
+        ByteBuffer out = ByteBuffer.allocate(4 + 1 + 1 + (1 + parents) * PackFile.HASH_BYTES
+            + 2 + timestamp.length + 4 + message.length);
+        out.putInt(COMMIT_MAGIC).put(VERSION).put((byte) flags);
+        putHash(out, commit.tree);
+        if (commit.parentHash != null) {
+            putHash(out, commit.parentHash);
+        }
+        if (commit.parent2Hash != null) {
+            putHash(out, commit.parent2Hash);
+        }
+        out.putShort((short) timestamp.length).put(timestamp);
+        out.putInt(message.length).put(message);
+        return out.array();
+    }
+
+    // the commit named HASH whose stored contents are DATA
+    static Commit decodeCommit(String hash, byte[] data) {
+        Commit commit = decodeAnyCommit(hash, data);
+        if (commit.tree == null) {
+            throw error("Commit %s was made before trees existed; "
+                + "run \"gitlet migrate\" to upgrade this repository.", hash);
+        }
+        return commit;
+    }
+
+    /* Like decodeCommit, but also reads a commit from before trees existed:
+     * its tree is null and its legacyFiles lists its files. For migrate. */
+    static Commit decodeAnyCommit(String hash, byte[] data) {
+        Trace.count("commits decoded", 1);
+        if (isLegacy(data)) {
+            return deserializeCommit(hash, data);
+        }
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            if (in.getInt() != COMMIT_MAGIC || in.get() != VERSION) {
+                throw error("Unknown format of commit %s", hash);
+            }
+            int flags = in.get();
+            Commit commit = new Commit();
+            commit.hash = hash;
+            commit.tree = getHash(in);
+            commit.parentHash = (flags & HAS_PARENT) != 0 ? getHash(in) : null;
+            commit.parent2Hash = (flags & HAS_PARENT2) != 0 ? getHash(in) : null;
+            commit.timestamp = getString(in, in.getShort() & 0xffff);
+            commit.message = getString(in, in.getInt());
+            return commit;
+        } catch (BufferUnderflowException e) {
+            throw error("Corrupt commit %s", hash);
+        }
+    }
+
+    /* Reads a Java-serialized commit through Commit.readObject. Only streams
+     * with Commit's pinned serialVersionUID are read: the original gitlet
+     * wrote those. */
+    private static Commit deserializeCommit(String hash, byte[] data) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            Commit commit = (Commit) in.readObject();
+            commit.hash = hash;
+            return commit;
+        } catch (InvalidClassException e) {
+            throw error("Commit %s was written by an unsupported version of gitlet.", hash);
+        } catch (IOException | ClassCastException | ClassNotFoundException e) {
+            throw error("Corrupt commit %s", hash);
+        }
+    }
+
+    static byte[] encodeBranches(Branches branches) {
+        Map<String, ObjectId> sorted = new TreeMap<>(branches.branches);
+        int size = 4 + 1 + 4;
+        for (String name : sorted.keySet()) {
+            size += 2 + name.getBytes(StandardCharsets.UTF_8).length + PackFile.HASH_BYTES;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(BRANCHES_MAGIC).put(VERSION).putInt(sorted.size());
+        for (Map.Entry<String, ObjectId> entry : sorted.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            out.putShort((short) name.length).put(name);
+            putHash(out, entry.getValue());
+        }
+        return out.array();
+    }
+
+    static Branches decodeBranches(byte[] data) {
+        if (isLegacy(data)) {
+            return deserialize(data, Branches.class);
+        }
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            if (in.getInt() != BRANCHES_MAGIC || in.get() != VERSION) {
+                throw error("Unknown format of the branch file.");
+            }
+            Branches branches = new Branches();
+            for (int count = in.getInt(); count > 0; count--) {
+                String name = getString(in, in.getShort() & 0xffff);
+                branches.branches.put(name, getHash(in));
+            }
+            return branches;
+        } catch (BufferUnderflowException e) {
+            throw error("Corrupt branch file.");
+        }
+    }
+
+    private static void putHash(ByteBuffer out, ObjectId id) {
+        id.write(out);
+    }
+
+    private static ObjectId getHash(ByteBuffer in) {
+        return ObjectId.read(in);
+    }
+
+    private static String getString(ByteBuffer in, int length) {
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length,
+            StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -1,86 +1,104 @@
 package gitlet;
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.Map;
-import java.util.Set;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.TreeMap;
 import java.util.Date;
 import java.util.List;
 
 import static gitlet.Utils.*;
-import static gitlet.Utils.sha1;
 
 public class Commit implements Serializable, Dumpable {
 
+    // the value Java derived for the original Commit, so the commits it serialized still read
+    private static final long serialVersionUID = -495058819843128949L;
+
+    /* Every field any Java-serialized commit has had; readObject takes those
+     * a stream has and Java skips the rest. Commits made before trees existed
+     * have no tree; they list their files in fileReferences, file name ->
+     * blob file, instead. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("message", String.class),
+        new ObjectStreamField("hash", String.class),
+        new ObjectStreamField("parentHash", String.class),
+        new ObjectStreamField("timestamp", String.class),
+        new ObjectStreamField("tree", String.class),
+        new ObjectStreamField("parent2Hash", String.class),
+        new ObjectStreamField("fileReferences", Map.class),
+    };
+
     String message;
     String hash;
-    String parentHash; //parent's hash
+    ObjectId parentHash; //parent's hash
     String timestamp;
-    Map<String, File> fileReferences; // file name -> blob reference
-    Set<String> fileHashes; // file hashes that I have
-    String parent2Hash;
+    ObjectId tree; // id of the root tree: file name -> blob hash
+    ObjectId parent2Hash;
+    // file name -> blob hash of a commit read from before trees existed; null otherwise
+    transient Map<String, String> legacyFiles;
 
-    public Commit(String message, String parentHash, File dir) {
+    public Commit(String message, String parentHash) {
         this.parent2Hash = null;
         this.message = message;
-        this.parentHash = parentHash;
-        this.fileReferences = new HashMap<>();
-        this.fileHashes = new HashSet<>();
+        this.parentHash = toId(parentHash);
         if (parentHash == null) {
+            this.tree = Tree.build(new TreeMap<>());
             this.timestamp = String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz", new Date(0));
         } else {
-            // read parent's commit
-            Commit parent = Utils.readObject(Utils.join(dir, parentHash), Commit.class);
-
-
-            // copy parent's files
-            fileReferences.putAll(parent.fileReferences);
-            for (String parentFileHash: parent.fileHashes) {
-                this.fileHashes.add(parentFileHash);
-            }
+            // share parent's tree until something changes
+            this.tree = ObjectStore.readCommit(parentHash).tree;
             this.timestamp = String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz", new Date());
         }
     }
+    // a commit with no fields set; for decoding
+    Commit() {
+    }
+
     public Commit(String message, String parentHash, String parent2Hash,
-                  Map<String, File> fileReferences, Set<String> fileHashes) {
+                  Map<String, String> files) {
         this.message = message;
-        this.parent2Hash = parent2Hash;
-        this.parentHash = parentHash;
-        this.fileReferences = fileReferences;
-        this.fileHashes = fileHashes;
+        this.parent2Hash = toId(parent2Hash);
+        this.parentHash = toId(parentHash);
+        this.tree = Tree.build(files);
         this.timestamp = String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz", new Date());
     }
 
-    public void create(File commits) {
-        this.hash = Utils.sha1(Utils.serialize(this));
-        File commitFile =  join(commits, this.hash);
-        Repository.createFile(commitFile);
-        Utils.writeObject(commitFile, this);
+    public void create() {
+        byte[] data = Codec.encodeCommit(this);
+        this.hash = Utils.sha1(data);
+        ObjectStore.write(ObjectStore.COMMIT, this.hash, data);
+        ObjectStore.COMMIT_CACHE.put(this.hash, this);
+        CommitGraph.append(this);
+        MessageIndex.add(this);
+    }
+
+    // blob hash of fileName in this commit, or null if it is not tracked
+    String blob(String fileName) {
+        return Tree.lookup(this.tree, fileName);
     }
 
-    public void modify(File addition, File removal, File blobs) {
+    boolean tracks(String fileName) {
+        return blob(fileName) != null;
+    }
+
+    // all tracked files, file name -> blob hash
+    Map<String, String> files() {
+        return Tree.flatten(this.tree);
+    }
+
+    public void modify(File addition, File removal) {
+        Map<String, String> changes = new TreeMap<>(); // file name -> new blob, or null
         // add from addition
         List<String> fileNamesAdd = plainFilenamesIn(addition);
         for (String fileName: fileNamesAdd) {
             File addingFile = join(addition, fileName);
-            String fileContent = readContentsAsString(addingFile);
-            String newFileHash = sha1(fileContent + fileName);
-
-            // create blob
-            File fileBlob = join(blobs, newFileHash);
-            if (!fileBlob.exists()) {
-                Repository.createFile(fileBlob);
-                Utils.writeContents(fileBlob, fileContent);
-            }
-            if (this.fileReferences.containsKey(fileName)) {
-                // we should remove old hash from our set
-                File oldFile = this.fileReferences.get(fileName);
-                String oldHash = sha1(readContentsAsString(oldFile) + fileName);
-                this.fileHashes.remove(oldHash);
-            }
-            this.fileReferences.put(fileName, fileBlob);
-            this.fileHashes.add(newFileHash);
+            // the blob was stored by add; the stage only holds its hash
+            String newFileHash = readContentsAsString(addingFile);
+            changes.put(fileName, newFileHash);
             // delete file from addition stage
             addingFile.delete();
         }
@@ -88,37 +106,68 @@ public class Commit implements Serializable, Dumpable {
         // remove from removal
         List<String> fileNamesRemove = plainFilenamesIn(removal);
         for (String fileName: fileNamesRemove) {
-            if (this.fileReferences.containsKey(fileName)) {
-                String fileContent = readContentsAsString(this.fileReferences.get(fileName));
-                this.fileHashes.remove(sha1(fileContent + fileName));
-                this.fileReferences.remove(fileName);
+            if (tracks(fileName)) {
+                changes.put(fileName, null);
                 File removalFile = join(removal, fileName);
                 removalFile.delete();
             }
         }
         if (fileNamesAdd.size() + fileNamesRemove.size() == 0) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         }
+        this.tree = Tree.update(this.tree, changes);
     }
 
-    public void addFiles(File cwd, File blobs) {
-        for (Map.Entry<String, File> entry : this.fileReferences.entrySet()) {
-            String fileName = entry.getKey();
-            File blobFile = entry.getValue();
-            File cwdFile = join(cwd, fileName);
-            Repository.createFile(cwdFile);
-            Utils.writeContents(cwdFile, Utils.readContentsAsString(blobFile));
+    public void log(PrintStream out) {
+        out.println("===");
+        out.println("commit " + this.hash);
+        if (parent2Hash != null) {
+            // the first seven digits of the current branch's parent, then the merged one's
+            out.println("Merge: " + parentHash.toHex().substring(0, 7) + " "
+                + parent2Hash.toHex().substring(0, 7));
         }
+        out.println("Date: " + this.timestamp);
+        out.println(this.message);
+        out.println();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        message = (String) fields.get("message", null);
+        hash = (String) fields.get("hash", null);
+        parentHash = toId((String) fields.get("parentHash", null));
+        timestamp = (String) fields.get("timestamp", null);
+        tree = toId((String) fields.get("tree", null));
+        parent2Hash = toId((String) fields.get("parent2Hash", null));
+        Map<?, ?> references = (Map<?, ?>) fields.get("fileReferences", null);
+        if (tree == null && references != null) {
+            legacyFiles = new TreeMap<>();
+            for (Map.Entry<?, ?> reference : references.entrySet()) {
+                // blob files were named by the blob's hash
+                legacyFiles.put((String) reference.getKey(),
+                    ((File) reference.getValue()).getName());
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("message", message);
+        fields.put("hash", hash);
+        fields.put("parentHash", toHex(parentHash));
+        fields.put("timestamp", timestamp);
+        fields.put("tree", toHex(tree));
+        fields.put("parent2Hash", toHex(parent2Hash));
+        out.writeFields();
+    }
+
+    // HASH as an id; null stays null, for a missing parent
+    private static ObjectId toId(String hash) {
+        return hash == null ? null : ObjectId.fromHex(hash);
     }
 
-    public void log() {
-        System.out.println("===");
-        System.out.println("commit " + this.hash);
-        System.out.println("Date: " + this.timestamp);
-        System.out.println(this.message);
-        // TODO two parents ?? merging issue
-        System.out.println();
+    private static String toHex(ObjectId id) {
+        return id == null ? null : id.toHex();
     }
 
     @Override
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static gitlet.Utils.*;
+
+/** A compact copy of the shape of history, so ancestry walks never have to
+ *  deserialize a Commit. The file is a header ("GCGR", version) followed by one
+ *  fixed-width record per commit, in the order the commits were added:
+ *
+ *      hash (20 bytes) | parent (4) | parent2 (4) | generation (4) | time (8)
+ *
+ *  Parents are record indices (-1 for none), so a parent always comes before its
+ *  children. The generation of a root is 1, and of any other commit is one more
+ *  than the largest generation of its parents. Commit.create() appends a record;
+ *  commits made before the graph existed are added the first time they are looked up. */
+public class CommitGraph {
+
+    static final File GRAPH = join(Repository.GITLET_DIR, "commit-graph");
+
+    static final int MAGIC = 0x47434752; // "GCGR"
+    static final int VERSION = 1;
+    static final int HEADER = 8;
+    static final int RECORD = PackFile.HASH_BYTES + 4 + 4 + 4 + 8;
+    static final int NONE = -1;
+
+    // commit ids, split into the three words of an ObjectId
+    private static long[] idHis;
+    private static long[] idMids;
+    private static int[] idLos;
+    private static int[] parents;
+    private static int[] parents2;
+    private static int[] generations;
+    private static long[] times;
+    private static int size;
+    private static ObjectIdIntMap indices;
+
+    @SuppressWarnings("try")
+    private static void load() {
+        if (indices != null) {
+            return;
+        }
+        indices = new ObjectIdIntMap();
+        size = 0;
+        allocate(64);
+        if (!GRAPH.exists()) {
+            return;
+        }
+        try (Trace.Span span = Trace.span("commit graph load")) {
+            ByteBuffer data = ByteBuffer.wrap(readContents(GRAPH));
+            if (data.remaining() < HEADER || data.getInt() != MAGIC
+                    || data.getInt() != VERSION) {
+                throw error("Corrupt commit graph.");
+            }
+            while (data.remaining() >= RECORD) {
+                add(ObjectId.read(data), data.getInt(), data.getInt(), data.getInt(),
+                    data.getLong());
+            }
+        }
+    }
+
+    private static void allocate(int capacity) {
+        if (idHis == null) {
+            idHis = new long[capacity];
+            idMids = new long[capacity];
+            idLos = new int[capacity];
+            parents = new int[capacity];
+            parents2 = new int[capacity];
+            generations = new int[capacity];
+            times = new long[capacity];
+        } else if (capacity > idHis.length) {
+            idHis = Arrays.copyOf(idHis, capacity);
+            idMids = Arrays.copyOf(idMids, capacity);
+            idLos = Arrays.copyOf(idLos, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            parents2 = Arrays.copyOf(parents2, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+    }
+
+    private static int add(ObjectId id, int parent, int parent2, int generation, long time) {
+        if (size == idHis.length) {
+            allocate(size * 2);
+        }
+        idHis[size] = id.hi;
+        idMids[size] = id.mid;
+        idLos[size] = id.lo;
+        parents[size] = parent;
+        parents2[size] = parent2;
+        generations[size] = generation;
+        times[size] = time;
+        indices.put(id, size);
+        size += 1;
+        return size - 1;
+    }
+
+    static int size() {
+        load();
+        return size;
+    }
+
+    // index of the commit with HASH, adding it (and its missing ancestors) if needed
+    static int indexOf(String hash) {
+        return indexOf(ObjectId.fromHex(hash));
+    }
+
+    static int indexOf(ObjectId id) {
+        load();
+        int index = indices.get(id);
+        if (index != ObjectIdIntMap.MISSING) {
+            return index;
+        }
+        // backfill commits made before the graph existed, parents first
+        Deque<Commit> pending = new ArrayDeque<>();
+        pending.push(ObjectStore.readCommit(id));
+        while (!pending.isEmpty()) {
+            Commit next = pending.peek();
+            if (next.parentHash != null && find(next.parentHash) == NONE) {
+                pending.push(ObjectStore.readCommit(next.parentHash));
+            } else if (next.parent2Hash != null && find(next.parent2Hash) == NONE) {
+                pending.push(ObjectStore.readCommit(next.parent2Hash));
+            } else {
+                append(pending.pop());
+            }
+        }
+        return find(id);
+    }
+
+    // index of the commit with HASH, or NONE if it is not in the graph yet
+    static int find(String hash) {
+        return find(ObjectId.fromHex(hash));
+    }
+
+    static int find(ObjectId id) {
+        load();
+        int index = indices.get(id);
+        return index == ObjectIdIntMap.MISSING ? NONE : index;
+    }
+
+    static ObjectId id(int index) {
+        return new ObjectId(idHis[index], idMids[index], idLos[index]);
+    }
+
+    static String hash(int index) {
+        return id(index).toHex();
+    }
+
+    static int parent(int index) {
+        return parents[index];
+    }
+
+    static int parent2(int index) {
+        return parents2[index];
+    }
+
+    static int generation(int index) {
+        return generations[index];
+    }
+
+    static long time(int index) {
+        return times[index];
+    }
+
+    // adds COMMIT to the graph and writes its record; returns its index
+    static int append(Commit commit) {
+        load();
+        ObjectId id = ObjectId.fromHex(commit.hash);
+        int existing = indices.get(id);
+        if (existing != ObjectIdIntMap.MISSING) {
+            return existing;
+        }
+        int parent = commit.parentHash == null ? NONE : indexOf(commit.parentHash);
+        int parent2 = commit.parent2Hash == null ? NONE : indexOf(commit.parent2Hash);
+        int generation = 1;
+        if (parent != NONE) {
+            generation = Math.max(generation, generations[parent] + 1);
+        }
+        if (parent2 != NONE) {
+            generation = Math.max(generation, generations[parent2] + 1);
+        }
+        long time = parseTimestamp(commit.timestamp);
+        int index = add(id, parent, parent2, generation, time);
+        writeRecord(index);
+        return index;
+    }
+
+    private static void writeRecord(int index) {
+        boolean fresh = !GRAPH.exists();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(GRAPH, true)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(id(index).toBytes());
+            out.writeInt(parents[index]);
+            out.writeInt(parents2[index]);
+            out.writeInt(generations[index]);
+            out.writeLong(times[index]);
+        } catch (IOException e) {
+            throw error("Cannot write commit graph.");
+        }
+    }
+
+    // writes the graph again from every stored commit, e.g. once commits have new ids
+    static void rebuild() {
+        GRAPH.delete();
+        indices = null;
+        for (String hash : ObjectStore.commitHashes()) {
+            indexOf(hash);
+        }
+    }
+
+    // Commit timestamps are formatted as "%ta %tb %td %tT %tY %tz"
+    static long parseTimestamp(String timestamp) {
+        try {
+            return new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z").parse(timestamp).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+}
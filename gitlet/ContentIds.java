@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import static gitlet.Utils.*;
+
+/** Blob ids are the SHA-1 of a file's contents alone, so copies and renames of
+ *  the same contents share one blob; the file name lives only in the tree.
+ *  Repositories made before this named blobs by sha1(contents + file name). The
+ *  file MARKER says a repository uses content ids; commands refuse to run in
+ *  one without it until "gitlet migrate" has moved it over.
+ *
+ *  Migration stores every blob under its content id. A tree is named by the
+ *  hash of its contents, so each tree listing a renamed blob is copied under
+ *  a new id pointing at the new blob, and History copies the commits above
+ *  those trees: commit ids change. The staged files are pointed at the new
+ *  blobs, and the old objects are dropped. Each step can be repeated, and the
+ *  marker is written last, so an interrupted migration is finished by running
+ *  it again. */
+public class ContentIds {
+
+    static final File MARKER = join(Repository.GITLET_DIR, "content-ids");
+
+    static boolean enabled() {
+        return MARKER.exists();
+    }
+
+    static void enable() {
+        writeContents(MARKER, "1\n");
+    }
+
+    // moves this repository to content ids and prints how much space that saved
+    @SuppressWarnings("try")
+    static void migrate() {
+        long before = ObjectStore.diskUsage();
+        List<String> blobs = ObjectStore.hashes(ObjectStore.BLOB);
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (String blob : blobs) {
+            tasks.add(() -> rehash(blob));
+        }
+        List<String> ids;
+        try (Trace.Span span = Trace.span("rehash blobs")) {
+            ids = Workers.run(tasks);
+        }
+        Map<String, String> renames = new HashMap<>();
+        for (int i = 0; i < blobs.size(); i++) {
+            if (!blobs.get(i).equals(ids.get(i))) {
+                renames.put(blobs.get(i), ids.get(i));
+            }
+        }
+
+        Map<ObjectId, ObjectId> trees = new HashMap<>();
+        Map<String, String> commits = History.copyCommits(
+            commit -> Tree.renameBlobs(commit.tree, renames, trees));
+        History.repoint(commits);
+        for (String fileName : plainFilenamesIn(Repository.ADDITION)) {
+            File staged = join(Repository.ADDITION, fileName);
+            String renamed = renames.get(readContentsAsString(staged));
+            if (renamed != null) {
+                writeContents(staged, renamed);
+            }
+        }
+
+        Map<String, String> treeIds = new HashMap<>();
+        for (Map.Entry<ObjectId, ObjectId> tree : trees.entrySet()) {
+            if (!tree.getKey().equals(tree.getValue())) {
+                treeIds.put(tree.getKey().toHex(), tree.getValue().toHex());
+            }
+        }
+        // commits first, so whatever an interruption leaves behind can still be read
+        Map<Integer, Set<ObjectId>> dropped = new HashMap<>();
+        History.drop(ObjectStore.COMMIT, commits, dropped);
+        History.drop(ObjectStore.TREE, treeIds, dropped);
+        History.drop(ObjectStore.BLOB, renames, dropped);
+        History.finish(dropped);
+        enable();
+
+        Set<String> distinct = new HashSet<>(ids);
+        long after = ObjectStore.diskUsage();
+        System.out.printf("Renamed %d of %d blobs to content ids; %d distinct blobs remain.%n",
+            renames.size(), blobs.size(), distinct.size());
+        System.out.printf("Objects took %d bytes before and %d after; %d bytes reclaimed.%n",
+            before, after, Math.max(0, before - after));
+        System.out.printf("Copied %d trees and %d commits to new ids.%n",
+            treeIds.size(), commits.size());
+    }
+
+    // stores the contents of blob HASH under their content id and returns that id
+    private static String rehash(String hash) {
+        File temp;
+        try {
+            temp = Files.createTempFile(Repository.GITLET_DIR.toPath(), "tmp-", null).toFile();
+        } catch (IOException e) {
+            throw error("Cannot create a temporary file in .gitlet");
+        }
+        try {
+            ObjectStore.copyBlob(hash, temp);
+            return ObjectStore.writeBlob(temp);
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A long-running gitlet that keeps the repository open between commands, so
+ *  the commit graph, the index, mapped packs and loaded classes stay warm.
+ *
+ *  "gitlet daemon" serves the repository in the current directory on the
+ *  Unix-domain socket .gitlet/daemon.sock until "gitlet daemon stop" or until
+ *  the socket is deleted; "gitlet daemon start" does the same in a background
+ *  process, and "gitlet daemon status" tells whether one is running. While
+ *  the socket exists, Main forwards every command to it and replays the
+ *  output; if nobody answers, the command runs in-process as usual. Requests
+ *  are served one at a time, so commands never see each other's changes
+ *  half-done. Each command runs with its client's Settings, not the daemon's.
+ *
+ *  A request is the number of settings, each setting's name and value, the
+ *  argument count and each argument (all strings as UTF). The reply
+ *  is a series of frames, kind (1 byte) | length (4) | bytes, ended by an EXIT
+ *  frame whose length is the exit code. */
+public class Daemon {
+
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    static final int EXIT = 0;
+    static final int OUT = 1;
+    static final int ERR = 2;
+
+    // how long start() waits for a new daemon to answer, in milliseconds
+    private static final long START_TIMEOUT = 10_000;
+
+    private static boolean running;
+
+    /* Sends ARGS to the daemon serving this directory and copies its output to
+     * System.out and System.err. Returns the command's exit code, or -1 if no
+     * daemon is listening, in which case nothing has been run. */
+    static int forward(String[] args) {
+        if (!SOCKET.exists()) {
+            return -1;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException e) {
+            // a socket left behind by a daemon that is gone
+            return -1;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            Map<String, String> settings = Settings.own();
+            out.writeInt(settings.size());
+            for (Map.Entry<String, String> setting : settings.entrySet()) {
+                out.writeUTF(setting.getKey());
+                out.writeUTF(setting.getValue());
+            }
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                int kind = in.readByte();
+                int length = in.readInt();
+                if (kind == EXIT) {
+                    System.out.flush();
+                    return length;
+                }
+                byte[] data = in.readNBytes(length);
+                (kind == ERR ? System.err : System.out).write(data, 0, data.length);
+            }
+        } catch (IOException e) {
+            // the command may have run, so it must not be run again here
+            System.out.flush();
+            System.err.println("Lost connection to the gitlet daemon.");
+            return 1;
+        }
+    }
+
+    /* Starts a daemon for this repository in the background, with the same
+     * java and class path as this process, and returns once it answers. */
+    static void start() {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process daemon;
+        try {
+            daemon = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "gitlet.Main", "daemon")
+                .directory(Repository.CWD)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        } catch (IOException e) {
+            throw error("Cannot start a gitlet daemon.");
+        }
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while (forward(new String[] {"daemon", "ping"}) < 0) {
+            if (!daemon.isAlive() || System.currentTimeMillis() > deadline) {
+                daemon.destroy();
+                throw error("Cannot start a gitlet daemon.");
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw error("Cannot start a gitlet daemon.");
+            }
+        }
+    }
+
+    // serves commands on SOCKET until asked to stop or SOCKET is deleted
+    static void serve() {
+        if (forward(new String[] {"daemon", "ping"}) >= 0) {
+            throw error("A gitlet daemon is already running.");
+        }
+        SOCKET.delete();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             Selector selector = Selector.open()) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            running = true;
+            while (running && SOCKET.exists()) {
+                // wake up now and then to notice a deleted socket
+                selector.select(1000);
+                selector.selectedKeys().clear();
+                SocketChannel accepted = server.accept();
+                if (accepted == null) {
+                    continue;
+                }
+                try (SocketChannel client = accepted) {
+                    handle(client);
+                } catch (IOException e) {
+                    // the client went away; serve the next one
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot listen on %s", SOCKET.getPath());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    // runs one request, sending everything it prints back to the client
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        Map<String, String> settings = new TreeMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            settings.put(in.readUTF(), in.readUTF());
+        }
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream reply = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream out = new PrintStream(new BufferedOutputStream(new Frames(reply, OUT)),
+                false, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new BufferedOutputStream(new Frames(reply, ERR)),
+                false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        System.setErr(err);
+        Settings.use(settings);
+        int code = 0;
+        try {
+            if (args.length == 2 && args[0].equals("daemon")) {
+                control(args[1]);
+            } else {
+                code = Main.execute(args);
+            }
+        } finally {
+            Settings.use(Settings.own());
+            out.flush();
+            err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        reply.writeByte(EXIT);
+        reply.writeInt(code);
+        reply.flush();
+    }
+
+    // runs "daemon ACTION" sent to this daemon
+    private static void control(String action) {
+        switch (action) {
+            case "stop":
+                running = false;
+                break;
+            case "status":
+                System.out.println("A gitlet daemon is serving this repository.");
+                break;
+            case "start":
+                System.out.println("A gitlet daemon is already running.");
+                break;
+            case "ping":
+                break;
+            default:
+                System.out.println("Incorrect operands.");
+                break;
+        }
+    }
+
+    // an output stream that wraps everything written to it in frames of one kind
+    private static class Frames extends OutputStream {
+        private final DataOutputStream reply;
+        private final int kind;
+
+        Frames(DataOutputStream reply, int kind) {
+            this.reply = reply;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            synchronized (reply) {
+                reply.writeByte(kind);
+                reply.writeInt(length);
+                reply.write(data, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            reply.flush();
+        }
+    }
+}
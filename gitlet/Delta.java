@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Binary deltas: a TARGET described as instructions against a BASE.
+ *
+ *  A delta starts with the base length and the target length, followed by
+ *  instructions until the target is complete:
+ *
+ *      COPY   offset length   copy length bytes of the base starting at offset
+ *      INSERT length bytes    append the literal bytes
+ *
+ *  All numbers are unsigned varints (7 bits per byte, low bits first). */
+public class Delta {
+
+    static final int COPY = 1;
+    static final int INSERT = 2;
+
+    // matches shorter than this are cheaper to insert than to copy
+    static final int BLOCK = 16;
+
+    /* Returns a delta turning BASE into TARGET, or null if the delta would be
+     * at least LIMIT bytes long. The base is indexed by the hash of every
+     * BLOCK-aligned block; the target is scanned one byte at a time, and every
+     * block found in the base is extended as far as it matches. */
+    static byte[] create(byte[] base, byte[] target, int limit) {
+        Map<Integer, Integer> index = new HashMap<>(); // block hash -> offset in base
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            index.putIfAbsent(blockHash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int insertStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer candidate = index.get(blockHash(target, i));
+            int length = candidate == null ? 0 : matchLength(base, candidate, target, i);
+            if (length < BLOCK) {
+                i += 1;
+                continue;
+            }
+            int offset = candidate;
+            // grow the match backwards into bytes we were about to insert
+            while (offset > 0 && i > insertStart && base[offset - 1] == target[i - 1]) {
+                offset -= 1;
+                i -= 1;
+                length += 1;
+            }
+            writeInsert(out, target, insertStart, i);
+            out.write(COPY);
+            writeVarint(out, offset);
+            writeVarint(out, length);
+            i += length;
+            insertStart = i;
+            if (out.size() >= limit) {
+                return null;
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        if (out.size() >= limit) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    // returns the target described by DELTA against BASE
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] position = {0};
+        int baseLength = readVarint(delta, position);
+        int targetLength = readVarint(delta, position);
+        if (baseLength != base.length) {
+            throw error("Delta does not match its base.");
+        }
+        byte[] target = new byte[targetLength];
+        int done = 0;
+        while (position[0] < delta.length) {
+            int op = delta[position[0]++];
+            if (op == COPY) {
+                int offset = readVarint(delta, position);
+                int length = readVarint(delta, position);
+                System.arraycopy(base, offset, target, done, length);
+                done += length;
+            } else if (op == INSERT) {
+                int length = readVarint(delta, position);
+                System.arraycopy(delta, position[0], target, done, length);
+                position[0] += length;
+                done += length;
+            } else {
+                throw error("Corrupt delta.");
+            }
+        }
+        if (done != targetLength) {
+            throw error("Corrupt delta.");
+        }
+        return target;
+    }
+
+    private static int blockHash(byte[] data, int start) {
+        int hash = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            hash = hash * 31 + data[i];
+        }
+        return hash;
+    }
+
+    private static int matchLength(byte[] base, int baseStart, byte[] target, int targetStart) {
+        int length = 0;
+        while (baseStart + length < base.length && targetStart + length < target.length
+                && base[baseStart + length] == target[targetStart + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[position[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** An immutable bitmap compressed as EWAH (enhanced word-aligned hybrid). The
+ *  bits are taken 64 at a time; a word of all zeros or all ones is a "clean"
+ *  word and a run of them is stored as a count, while any other word is stored
+ *  as it is. The stored words are a sequence of markers, each followed by the
+ *  literal words it announces:
+ *
+ *      marker = literal count (31 bits) | run length (32 bits) | run bit (1 bit)
+ *
+ *  so a marker stands for RUN LENGTH clean words of RUN BIT, then its literals.
+ *  Reachability bitmaps are long runs of ones (old history) ending in a few
+ *  mixed words (recent branches), which this packs into a handful of words.
+ *
+ *  Logical operations stream over both operands a word at a time and never
+ *  expand either one into a plain array. Bits past the end read as zero. */
+public class EwahBitmap {
+
+    private static final long MAX_RUN = 0xffffffffL;
+    private static final int MAX_LITERALS = 0x7fffffff;
+
+    private final long[] buffer;
+    private final int used;
+    // number of 64-bit words the bitmap covers
+    private final int words;
+
+    private EwahBitmap(long[] buffer, int used, int words) {
+        this.buffer = buffer;
+        this.used = used;
+        this.words = words;
+    }
+
+    static EwahBitmap empty() {
+        return new Builder().build();
+    }
+
+    // compresses the plain bitmap WORDS, bit i being bit (i % 64) of word i / 64
+    static EwahBitmap fromWords(long[] plain) {
+        Builder builder = new Builder();
+        for (long word : plain) {
+            builder.add(word);
+        }
+        return builder.build();
+    }
+
+    // steps over whole markers, so this costs the number of markers, not of words
+    boolean get(int position) {
+        long target = position >>> 6;
+        long word = 0;
+        for (int at = 0; at < used && word < words; ) {
+            long run = (buffer[at] >>> 1) & MAX_RUN;
+            int literals = (int) (buffer[at] >>> 33);
+            if (target < word + run) {
+                return (buffer[at] & 1) != 0;
+            }
+            word += run;
+            if (target < word + literals) {
+                return (buffer[at + 1 + (int) (target - word)] & (1L << position)) != 0;
+            }
+            word += literals;
+            at += 1 + literals;
+        }
+        return false;
+    }
+
+    int cardinality() {
+        int count = 0;
+        Cursor cursor = new Cursor();
+        while (cursor.hasNext()) {
+            count += Long.bitCount(cursor.next());
+        }
+        return count;
+    }
+
+    // calls ACTION with each set position, in increasing order
+    void forEach(IntConsumer action) {
+        Cursor cursor = new Cursor();
+        for (int word = 0; cursor.hasNext(); word++) {
+            long bits = cursor.next();
+            while (bits != 0) {
+                action.accept((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    // the set positions, in increasing order
+    int[] positions() {
+        int[] positions = new int[cardinality()];
+        int[] next = {0};
+        forEach(position -> positions[next[0]++] = position);
+        return positions;
+    }
+
+    EwahBitmap or(EwahBitmap other) {
+        Cursor a = new Cursor();
+        Cursor b = other.new Cursor();
+        Builder builder = new Builder();
+        while (a.hasNext() || b.hasNext()) {
+            builder.add((a.hasNext() ? a.next() : 0) | (b.hasNext() ? b.next() : 0));
+        }
+        return builder.build();
+    }
+
+    // the bits set here and not in OTHER
+    EwahBitmap andNot(EwahBitmap other) {
+        Cursor a = new Cursor();
+        Cursor b = other.new Cursor();
+        Builder builder = new Builder();
+        while (a.hasNext()) {
+            builder.add(a.next() & ~(b.hasNext() ? b.next() : 0));
+        }
+        return builder.build();
+    }
+
+    // bytes written by write()
+    int serializedSize() {
+        return 8 + 8 * used;
+    }
+
+    // words covered (4 bytes) | stored words (4) | the stored words
+    void write(ByteBuffer out) {
+        out.putInt(words).putInt(used);
+        for (int i = 0; i < used; i++) {
+            out.putLong(buffer[i]);
+        }
+    }
+
+    static EwahBitmap read(ByteBuffer in) {
+        int words = in.getInt();
+        int used = in.getInt();
+        long[] buffer = new long[used];
+        for (int i = 0; i < used; i++) {
+            buffer[i] = in.getLong();
+        }
+        return new EwahBitmap(buffer, used, words);
+    }
+
+    // the uncompressed words, one at a time
+    private class Cursor {
+        private int marker;
+        private long run;
+        private boolean runBit;
+        private int literals;
+        private int literal;
+        private int remaining = words;
+
+        Cursor() {
+            load(0);
+        }
+
+        private void load(int at) {
+            marker = at;
+            if (at < used) {
+                runBit = (buffer[at] & 1) != 0;
+                run = (buffer[at] >>> 1) & MAX_RUN;
+                literals = (int) (buffer[at] >>> 33);
+                literal = at + 1;
+            }
+        }
+
+        boolean hasNext() {
+            return remaining > 0;
+        }
+
+        long next() {
+            while (run == 0 && literal == marker + 1 + literals) {
+                load(marker + 1 + literals);
+            }
+            remaining -= 1;
+            if (run > 0) {
+                run -= 1;
+                return runBit ? -1L : 0L;
+            }
+            literal += 1;
+            return buffer[literal - 1];
+        }
+    }
+
+    // appends words and compresses them as it goes
+    private static class Builder {
+        private long[] buffer = new long[4];
+        private int used = 1;
+        private int marker;
+        private int words;
+
+        void add(long word) {
+            words += 1;
+            long current = buffer[marker];
+            int literals = (int) (current >>> 33);
+            if (word == 0 || word == -1) {
+                boolean bit = word == -1;
+                long run = (current >>> 1) & MAX_RUN;
+                boolean sameRun = run == 0 || ((current & 1) != 0) == bit;
+                if (literals == 0 && sameRun && run < MAX_RUN) {
+                    buffer[marker] = (run + 1) << 1 | (bit ? 1 : 0);
+                    return;
+                }
+                newMarker();
+                buffer[marker] = 1L << 1 | (bit ? 1 : 0);
+                return;
+            }
+            if (literals == MAX_LITERALS) {
+                newMarker();
+            }
+            buffer[marker] += 1L << 33;
+            append(word);
+        }
+
+        private void newMarker() {
+            marker = used;
+            append(0);
+        }
+
+        private void append(long word) {
+            if (used == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[used] = word;
+            used += 1;
+        }
+
+        EwahBitmap build() {
+            return new EwahBitmap(buffer, used, words);
+        }
+    }
+}
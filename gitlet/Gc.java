@@ -0,0 +1,295 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static gitlet.Utils.*;
+
+/** Mark-and-sweep collection of objects nothing refers to any more: commits
+ *  left behind by reset and rm-branch, and the blobs and trees only they used,
+ *  such as the conflict blobs a merge writes.
+ *
+ *  Every object in the store, loose or packed, gets a position, and a bitmap
+ *  over the positions is the reachable set. Marking starts from each branch tip
+ *  and from the staged blobs, one Workers task per root; a task follows
+ *  parents, trees, blobs and chunks depth first, and stops wherever it finds a
+ *  bit already set, so history shared by several branches is walked once. A
+ *  commit with ReachabilityBitmaps has everything below it marked from them
+ *  instead, and gc writes bitmaps for the current branch tips when done.
+ *
+ *  An unreachable object is only deleted once it is older than the grace
+ *  period, so objects a command has just written but not yet linked to a
+ *  branch are safe. An object's age counts from when it was first stored,
+ *  which packs record (see PackFile), so repacking does not make old objects
+ *  young again. Younger ones are kept loose (a packed one is copied out,
+ *  keeping its time) and the reachable rest is repacked. When nothing
+ *  is unreachable and everything is already in one pack, the pack is left
+ *  alone. The commit graph keeps the records of deleted commits; no walk from
+ *  a branch reaches them. */
+public class Gc {
+
+    // two weeks, in milliseconds
+    static final long DEFAULT_GRACE = 14L * 24 * 60 * 60 * 1000;
+
+    private static final int[] TYPES = {ObjectStore.COMMIT, ObjectStore.TREE,
+        ObjectStore.BLOB, ObjectStore.CHUNK};
+
+    // position of each object, by type; a chunk and a blob may share an id
+    private final ObjectIdIntMap[] positions = new ObjectIdIntMap[TYPES.length + 1];
+    // parsed once, when listed; hex is only made for objects the sweep touches
+    private final List<ObjectId> ids = new ArrayList<>();
+    private final List<Integer> types = new ArrayList<>();
+    private final List<Boolean> loose = new ArrayList<>();
+    private final List<Boolean> packed = new ArrayList<>();
+    private MarkBits marked;
+
+    /* Parses the operand of "gc --grace=...": a number of seconds, or "now" to
+     * delete every unreachable object regardless of age. */
+    static long parseGrace(String value) {
+        if (value.equals("now")) {
+            return 0;
+        }
+        try {
+            long seconds = Long.parseLong(value);
+            if (seconds >= 0) {
+                return seconds * 1000;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw error("Incorrect operands.");
+    }
+
+    // deletes unreachable objects older than GRACE milliseconds, repacks, and prints stats
+    static void run(long grace) {
+        new Gc().collect(grace);
+    }
+
+    @SuppressWarnings("try")
+    private void collect(long grace) {
+        long before = ObjectStore.diskUsage();
+        try (Trace.Span span = Trace.span("gc list objects")) {
+            list();
+        }
+        marked = new MarkBits(ids.size());
+
+        Set<ObjectId> tips = new HashSet<>(Repository.readBranches().branches.values());
+        // loaded here, as the mark tasks only read them
+        CommitGraph.size();
+        ReachabilityBitmaps.entry(0);
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (ObjectId tip : tips) {
+            tasks.add(() -> walk(tip));
+        }
+        tasks.add(this::markStaged);
+        long start = System.nanoTime();
+        long reached = 0;
+        try (Trace.Span span = Trace.span("gc mark")) {
+            for (long count : Workers.run(tasks)) {
+                reached += count;
+            }
+        }
+        long markNanos = Math.max(1, System.nanoTime() - start);
+
+        long now = System.currentTimeMillis();
+        // ids by type, as a chunk and a blob or tree may share an id
+        Map<Integer, Set<ObjectId>> excluded = new HashMap<>();
+        boolean packNeeded = ObjectStore.packs().size() > 1;
+        int deleted = 0;
+        int kept = 0;
+        try (Trace.Span span = Trace.span("gc sweep")) {
+            for (int i = 0; i < ids.size(); i++) {
+                int type = types.get(i);
+                if (marked.get(i)) {
+                    packNeeded |= loose.get(i);
+                    continue;
+                }
+                String hash = ids.get(i).toHex();
+                if (now - ObjectStore.lastModified(type, hash) < grace) {
+                    if (!loose.get(i)) {
+                        ObjectStore.loosen(type, hash);
+                        packNeeded = true;
+                    }
+                    kept += 1;
+                } else {
+                    ObjectStore.deleteLoose(type, hash);
+                    packNeeded |= packed.get(i);
+                    deleted += 1;
+                }
+                excluded.computeIfAbsent(type, t -> new HashSet<>()).add(ids.get(i));
+            }
+        }
+        if (packNeeded) {
+            ObjectStore.repack(excluded);
+        }
+        ObjectStore.COMMIT_CACHE.clear();
+        if (!ReachabilityBitmaps.covers(tips)) {
+            ReachabilityBitmaps.write(tips);
+        }
+        Trace.count("objects marked", reached);
+        Trace.count("objects deleted", deleted);
+
+        long after = ObjectStore.diskUsage();
+        System.out.printf("Marked %d of %d objects from %d branch tips in %d ms "
+            + "(%d objects/s, workers: %d).%n", reached, ids.size(), tips.size(),
+            markNanos / 1_000_000, reached * 1_000_000_000L / markNanos,
+            Math.min(Workers.count(), tasks.size()));
+        System.out.printf("Deleted %d unreachable objects and kept %d within the grace period; "
+            + "%d bytes reclaimed.%n", deleted, kept, Math.max(0, before - after));
+    }
+
+    // gives every object in the store a position
+    private void list() {
+        for (int type : TYPES) {
+            positions[type] = new ObjectIdIntMap();
+            for (String hash : ObjectStore.looseHashes(type)) {
+                add(type, ObjectId.fromHex(hash), true);
+            }
+            for (PackFile pack : ObjectStore.packs()) {
+                for (ObjectId id : pack.ids(type)) {
+                    add(type, id, false);
+                }
+            }
+        }
+    }
+
+    private void add(int type, ObjectId id, boolean isLoose) {
+        int position = positions[type].get(id);
+        if (position == ObjectIdIntMap.MISSING) {
+            positions[type].put(id, ids.size());
+            ids.add(id);
+            types.add(type);
+            loose.add(isLoose);
+            packed.add(!isLoose);
+        } else if (!isLoose) {
+            packed.set(position, true);
+        }
+    }
+
+    // sets the bit of object ID; true if this call set it, false if it was set or is missing
+    private boolean mark(int type, ObjectId id) {
+        int position = positions[type].get(id);
+        return position != ObjectIdIntMap.MISSING && marked.set(position);
+    }
+
+    // marks everything in the stored bitmaps of ENTRY; returns how many objects this call marked
+    private long markAll(ReachabilityBitmaps.Entry entry) {
+        long count = 0;
+        for (int commit : entry.commits.positions()) {
+            if (mark(ObjectStore.COMMIT, CommitGraph.id(commit))) {
+                count += 1;
+            }
+        }
+        for (int object : entry.objects.positions()) {
+            int type = ReachabilityBitmaps.objectType(object);
+            if (mark(type, ReachabilityBitmaps.objectId(object))) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    // marks everything reachable from commit TIP; returns how many objects this call marked
+    private long walk(ObjectId tip) {
+        long count = 0;
+        Deque<ObjectId> commits = new ArrayDeque<>();
+        Deque<ObjectId> trees = new ArrayDeque<>();
+        commits.push(tip);
+        while (!commits.isEmpty()) {
+            ObjectId id = commits.pop();
+            if (!mark(ObjectStore.COMMIT, id)) {
+                continue;
+            }
+            count += 1;
+            int index = CommitGraph.find(id);
+            ReachabilityBitmaps.Entry stored =
+                index == CommitGraph.NONE ? null : ReachabilityBitmaps.entry(index);
+            if (stored != null) {
+                count += markAll(stored);
+                continue;
+            }
+            Commit commit = ObjectStore.readCommit(id);
+            if (commit.parent2Hash != null) {
+                commits.push(commit.parent2Hash);
+            }
+            if (commit.parentHash != null) {
+                commits.push(commit.parentHash);
+            }
+            trees.push(commit.tree);
+            while (!trees.isEmpty()) {
+                ObjectId tree = trees.pop();
+                if (!mark(ObjectStore.TREE, tree)) {
+                    continue;
+                }
+                count += 1;
+                for (Tree.Entry entry : Tree.children(tree)) {
+                    if (entry.isTree()) {
+                        trees.push(entry.id);
+                    } else {
+                        count += markBlob(entry.id);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private long markStaged() {
+        long count = 0;
+        for (String fileName : plainFilenamesIn(Repository.ADDITION)) {
+            File staged = join(Repository.ADDITION, fileName);
+            count += markBlob(ObjectId.fromHex(readContentsAsString(staged)));
+        }
+        return count;
+    }
+
+    private long markBlob(ObjectId id) {
+        if (!mark(ObjectStore.BLOB, id)) {
+            return 0;
+        }
+        long count = 1;
+        for (ObjectId chunk : ObjectStore.chunkIds(id.toHex())) {
+            if (mark(ObjectStore.CHUNK, chunk)) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    // a fixed-size bitmap that several threads can set bits in at once
+    private static class MarkBits {
+        private final AtomicLongArray words;
+
+        MarkBits(int size) {
+            words = new AtomicLongArray((size + 63) >>> 6);
+        }
+
+        boolean get(int position) {
+            return (words.get(position >>> 6) & (1L << position)) != 0;
+        }
+
+        // sets the bit at POSITION; true if it was clear
+        boolean set(int position) {
+            int word = position >>> 6;
+            long bit = 1L << position;
+            while (true) {
+                long old = words.get(word);
+                if ((old & bit) != 0) {
+                    return false;
+                }
+                if (words.compareAndSet(word, old, old | bit)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
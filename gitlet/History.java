@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/** Rewrites commits for migrate. A commit is named by the SHA-1 of its
+ *  encoding, so a commit that is re-encoded, or whose tree or parents change,
+ *  is copied under a new id, and so is every commit above it. The copies are
+ *  made parents first; then the branches are pointed at them, and the old
+ *  commits and the indexes naming them are dropped. Each step can be repeated,
+ *  so an interrupted rewrite is finished by running it again. */
+public class History {
+
+    /* Copies, parents first, every commit whose id is not the SHA-1 of its
+     * encoding once TREE has given it a tree and its parents are their copies.
+     * Commits from before trees existed are read too; TREE gets them with a
+     * null tree. Returns old id -> new id for the commits copied. */
+    static Map<String, String> copyCommits(Function<Commit, ObjectId> tree) {
+        Map<String, String> copies = new HashMap<>();
+        for (String hash : parentsFirst(ObjectStore.commitHashes())) {
+            Commit commit = read(hash);
+            Commit copy = new Commit();
+            copy.message = commit.message;
+            copy.timestamp = commit.timestamp;
+            copy.tree = tree.apply(commit);
+            copy.parentHash = copied(commit.parentHash, copies);
+            copy.parent2Hash = copied(commit.parent2Hash, copies);
+            byte[] data = Codec.encodeCommit(copy);
+            copy.hash = sha1(data);
+            if (!copy.hash.equals(hash)) {
+                ObjectStore.write(ObjectStore.COMMIT, copy.hash, data);
+                copies.put(hash, copy.hash);
+            }
+        }
+        return copies;
+    }
+
+    // points every branch whose tip was copied at the copy, by COPIES
+    static void repoint(Map<String, String> copies) {
+        Branches branches = Repository.readBranches();
+        for (String branch : new ArrayList<>(branches.branches.keySet())) {
+            String copy = copies.get(branches.tip(branch));
+            if (copy != null) {
+                branches.point(branch, copy);
+            }
+        }
+        Repository.writeBranches(branches);
+    }
+
+    /* Deletes the loose copies of the objects of TYPE renamed by RENAMES, old
+     * id -> new id, unless an old id is also a new one; records the ids
+     * deleted in DROPPED, by type, for finish to drop their packed copies. */
+    static void drop(int type, Map<String, String> renames, Map<Integer, Set<ObjectId>> dropped) {
+        Set<String> old = new HashSet<>(renames.keySet());
+        old.removeAll(renames.values());
+        for (String hash : old) {
+            ObjectStore.deleteLoose(type, hash);
+            dropped.computeIfAbsent(type, t -> new HashSet<>()).add(ObjectId.fromHex(hash));
+        }
+    }
+
+    /* Drops the packed copies of DROPPED, ids by type, and rebuilds the
+     * indexes that list commits by id. The bitmaps are deleted; the next gc
+     * writes them again. */
+    static void finish(Map<Integer, Set<ObjectId>> dropped) {
+        if (!ObjectStore.packs().isEmpty()) {
+            ObjectStore.repack(dropped);
+        }
+        ObjectStore.COMMIT_CACHE.clear();
+        ReachabilityBitmaps.clear();
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
+    }
+
+    // the commit HASH, even one from before trees existed
+    private static Commit read(String hash) {
+        return Codec.decodeAnyCommit(hash, ObjectStore.read(ObjectStore.COMMIT, hash));
+    }
+
+    // the copy of commit ID, or ID itself if it was not copied; null for no parent
+    private static ObjectId copied(ObjectId id, Map<String, String> copies) {
+        if (id == null || !copies.containsKey(id.toHex())) {
+            return id;
+        }
+        return ObjectId.fromHex(copies.get(id.toHex()));
+    }
+
+    // HASHES ordered so that every commit comes after its parents
+    private static List<String> parentsFirst(List<String> hashes) {
+        List<String> order = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Set<String> ordered = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String start : hashes) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String hash = stack.peek();
+                if (visited.contains(hash)) {
+                    stack.pop();
+                    if (ordered.add(hash)) {
+                        order.add(hash);
+                    }
+                    continue;
+                }
+                visited.add(hash);
+                Commit commit = read(hash);
+                for (ObjectId parent : new ObjectId[] {commit.parentHash, commit.parent2Hash}) {
+                    if (parent != null && !visited.contains(parent.toHex())) {
+                        stack.push(parent.toHex());
+                    }
+                }
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A cache of working-file hashes keyed by stat data, so unchanged files are
+ *  never read again. For every path it records the modification time, size
+ *  and inode the file had when it was hashed, and the resulting blob hash.
+ *
+ *  A file modified within the same clock tick as the index was written could
+ *  change again without its mtime moving, so entries whose mtime is not older
+ *  than the index file itself are re-hashed rather than trusted.
+ *
+ *  file: "GIND" version, count, then per entry:
+ *        path (UTF) | mtime (8) | size (8) | inode (8) | hash (20) */
+public class Index {
+
+    static final File INDEX = join(Repository.GITLET_DIR, "index");
+
+    static final int MAGIC = 0x47494e44; // "GIND"
+    // 2: blob ids hash the contents alone; entries of version 1 hashed the name too
+    static final int VERSION = 2;
+
+    // stat data and blob hash of one path
+    private static class Entry {
+        final long mtime;
+        final long size;
+        final long inode;
+        final ObjectId hash;
+
+        Entry(long mtime, long size, long inode, ObjectId hash) {
+            this.mtime = mtime;
+            this.size = size;
+            this.inode = inode;
+            this.hash = hash;
+        }
+
+        boolean matches(Entry stat) {
+            return mtime == stat.mtime && size == stat.size && inode == stat.inode;
+        }
+    }
+
+    // safe to query and update from the add and checkout workers
+    private static volatile Map<String, Entry> entries;
+    private static long writtenAt;
+    private static volatile boolean dirty;
+
+    private static synchronized void load() {
+        if (entries != null) {
+            return;
+        }
+        Map<String, Entry> loaded = new ConcurrentHashMap<>();
+        if (INDEX.exists()) {
+            ByteBuffer data = ByteBuffer.wrap(readContents(INDEX));
+            if (data.remaining() < 12 || data.getInt() != MAGIC || data.getInt() != VERSION) {
+                // an unreadable cache is just an empty one
+                dirty = true;
+            } else {
+                // timestamps share the file system's granularity, so compare against its clock
+                writtenAt = stat(INDEX).mtime;
+                int count = data.getInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] name = new byte[data.getShort() & 0xffff];
+                    data.get(name);
+                    long mtime = data.getLong();
+                    long size = data.getLong();
+                    long inode = data.getLong();
+                    loaded.put(new String(name, StandardCharsets.UTF_8),
+                            new Entry(mtime, size, inode, ObjectId.read(data)));
+                }
+            }
+        }
+        entries = loaded;
+    }
+
+    // current stat data of FILE, with no hash
+    private static Entry stat(File file) {
+        Path path = file.toPath();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long inode = 0;
+            try {
+                inode = ((Number) Files.getAttribute(path, "unix:ino")).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // no inode numbers on this platform
+            }
+            long mtime = toNanos(attributes.lastModifiedTime());
+            return new Entry(mtime, attributes.size(), inode, null);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static long toNanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    // the cached blob hash of FILE (tracked as NAME), or null if it may have changed
+    static String cached(File file, String name) {
+        load();
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        Entry stat = stat(file);
+        if (!entry.matches(stat) || stat.mtime >= writtenAt) {
+            return null;
+        }
+        return entry.hash.toHex();
+    }
+
+    // the blob hash of FILE (tracked as NAME), hashing it only if its stat data changed
+    static String hash(File file, String name) {
+        String hash = cached(file, name);
+        if (hash == null) {
+            hash = sha1(file);
+            record(file, name, hash);
+        }
+        return hash;
+    }
+
+    // remembers that FILE, tracked as NAME, currently has blob HASH
+    static void record(File file, String name, String hash) {
+        load();
+        Entry stat = stat(file);
+        entries.put(name, new Entry(stat.mtime, stat.size, stat.inode, ObjectId.fromHex(hash)));
+        dirty = true;
+    }
+
+    static void forget(String name) {
+        load();
+        if (entries.remove(name) != null) {
+            dirty = true;
+        }
+    }
+
+    // writes the index back if anything changed
+    static void save() {
+        if (!dirty) {
+            return;
+        }
+        Trace.count("index entries saved", entries.size());
+        File temp = join(Repository.GITLET_DIR, "index.lock");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeLong(entry.getValue().mtime);
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().inode);
+                out.write(entry.getValue().hash.toBytes());
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(INDEX)) {
+            dirty = false;
+            entries = null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The limits log and global-log take after the command name:
+ *
+ *      --max-count=N, --max-count N, -n N   print at most N commits
+ *      --skip=N, --skip N                   pass over the first N commits
+ *      --since=DATE, --since DATE           only commits made at or after DATE,
+ *                                           given as 2026-10-17 or
+ *                                           2026-10-17T13:45:00 (local time)
+ *
+ *  Commits are skipped and dated from the commit graph, so a commit is only
+ *  read once it is certain to be printed. */
+public class LogFilter {
+
+    private int maxCount = Integer.MAX_VALUE;
+    private int skip;
+    private long since = Long.MIN_VALUE;
+
+    private int seen;
+    private int printed;
+
+    static LogFilter parse(List<String> args) {
+        LogFilter filter = new LogFilter();
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            String option = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+            String value;
+            if (arg.contains("=")) {
+                value = arg.substring(arg.indexOf('=') + 1);
+            } else if (i + 1 < args.size()) {
+                i += 1;
+                value = args.get(i);
+            } else {
+                throw error("Incorrect operands.");
+            }
+            switch (option) {
+                case "-n":
+                case "--max-count":
+                    filter.maxCount = count(value);
+                    break;
+                case "--skip":
+                    filter.skip = count(value);
+                    break;
+                case "--since":
+                    filter.since = date(value);
+                    break;
+                default:
+                    throw error("Incorrect operands.");
+            }
+        }
+        return filter;
+    }
+
+    private static int count(String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw error("Incorrect operands.");
+    }
+
+    // milliseconds since the epoch, the unit of CommitGraph.time()
+    private static long date(String value) {
+        try {
+            LocalDateTime time = value.contains("T") ? LocalDateTime.parse(value)
+                : LocalDate.parse(value).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw error("Incorrect operands.");
+        }
+    }
+
+    // true if the commit made at TIME should be printed; counts it toward the limits
+    boolean accept(long time) {
+        if (time < since) {
+            return false;
+        }
+        seen += 1;
+        if (seen <= skip || printed >= maxCount) {
+            return false;
+        }
+        printed += 1;
+        return true;
+    }
+
+    // true once no further commit can be printed
+    boolean done() {
+        return printed >= maxCount;
+    }
+}
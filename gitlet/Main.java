@@ -1,5 +1,9 @@
 package gitlet;
 
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author TODO
  */
@@ -9,74 +13,117 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        args = Trace.withEnvironment(args);
+        // everything but starting a daemon goes to the daemon if one is running
+        if (args.length != 1 || !args[0].equals("daemon")) {
+            int code = Daemon.forward(args);
+            if (code >= 0) {
+                exit(code);
+                return;
+            }
+        }
+        exit(execute(args));
+    }
+
+    private static void exit(int code) {
+        if (code != 0) {
+            System.exit(code);
+        }
+    }
+
+    /* Runs one command, printing the message of any user error, and returns
+     * its exit code: 0, or 1 after an internal error, whose stack trace goes
+     * to System.err. Both main and Daemon run commands this way. */
+    static int execute(String[] args) {
+        try {
+            run(args);
+            return 0;
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+            return 0;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /* Runs one command, throwing a GitletException with the message for any
+     * user error. A leading --trace flag traces the command; see Trace. */
+    @SuppressWarnings("try")
+    static void run(String[] args) {
+        args = Trace.configure(args);
+        try {
+            try (Trace.Span span = Trace.span("command " + (args.length > 0 ? args[0] : ""))) {
+                dispatch(args);
+            }
+        } finally {
+            Trace.finish();
+        }
+    }
+
+    private static void dispatch(String[] args) {
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
                 if (args.length > 1) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Repository.init();
                 break;
             case "add":
                 Repository.initialized();
-                if (args.length > 2) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
                 }
-                Repository.add(args[1]);
+                Repository.add(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 Repository.initialized();
                 if (args.length > 2) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 } else if (args.length == 1 || args[1].length() == 0) {
-                    System.out.println("Please enter a commit message.");
-                    System.exit(0);
+                    throw error("Please enter a commit message.");
                 }
                 Repository.commit(args[1]);
                 break;
             case "rm":
                 if (args.length > 2) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Repository.initialized();
                 Repository.rm(args[1]);
                 break;
             case "log":
-                if (args.length > 1) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
-                }
                 Repository.initialized();
-                Repository.log();
+                if (args.length > 1 && args[1].contains("..")) {
+                    Repository.logRange(args[1],
+                        LogFilter.parse(Arrays.asList(args).subList(2, args.length)));
+                } else {
+                    Repository.log(LogFilter.parse(Arrays.asList(args).subList(1, args.length)));
+                }
                 break;
             case "global-log":
-                if (args.length > 1) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
-                }
                 Repository.initialized();
-                Repository.globalLog();
+                Repository.globalLog(
+                    LogFilter.parse(Arrays.asList(args).subList(1, args.length)));
                 break;
             case "find":
-                if (args.length > 2 || args.length == 1) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
-                }
                 Repository.initialized();
-                Repository.find(args[1]);
+                if (args.length > 2 && args[1].equals("--grep")) {
+                    Repository.find(String.join(" ", Arrays.asList(args).subList(2, args.length)),
+                        true);
+                } else if (args.length == 2) {
+                    Repository.find(args[1], false);
+                } else {
+                    throw error("Incorrect operands.");
+                }
                 break;
             case "checkout":
                 if (args.length == 1) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 if (args[1].equals("--")) {
                     Repository.currentCheckout(args[2]);
@@ -86,22 +133,19 @@ public class Main {
                 } else if (args[2].equals("--")) {
                     Repository.idCheckout(args[1], args[3]);
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 break;
             case "branch":
                 if (args.length == 1) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Repository.initialized();
                 Repository.branch(args[1]);
                 break;
             case "rm-branch":
                 if (args.length != 2) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Repository.initialized();
                 Repository.removeBranch(args[1]);
@@ -112,20 +156,57 @@ public class Main {
                 break;
             case "reset":
                 if (args.length != 2) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Repository.initialized();
                 Repository.reset(args[1]);
                 break;
             case "merge":
                 if (args.length != 2) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Repository.initialized();
                 Repository.merge(args[1]);
                 break;
+            case "merge-base":
+                Repository.initialized();
+                boolean all = args.length > 1 && args[1].equals("--all");
+                boolean octopus = args.length > 1 && args[1].equals("--octopus");
+                int first = all || octopus ? 2 : 1;
+                if (args.length - first < 2 || (first == 1 && args.length != 3)) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.mergeBase(Arrays.asList(args).subList(first, args.length),
+                    all, octopus);
+                break;
+            case "gc":
+                if (args.length > 2 || (args.length == 2 && !args[1].startsWith("--grace="))) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.initialized();
+                Repository.gc(args.length == 2
+                    ? Gc.parseGrace(args[1].substring("--grace=".length())) : Gc.DEFAULT_GRACE);
+                break;
+            case "migrate":
+                if (args.length != 1) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.exists();
+                Repository.migrate();
+                break;
+            case "daemon":
+                Repository.initialized();
+                if (args.length == 1) {
+                    Daemon.serve();
+                } else if (args.length == 2 && args[1].equals("start")) {
+                    Daemon.start();
+                } else if (args.length == 2
+                           && (args[1].equals("stop") || args[1].equals("status"))) {
+                    throw error("No gitlet daemon is running.");
+                } else {
+                    throw error("Incorrect operands.");
+                }
+                break;
             default:
                 System.out.println("No command with that name exists.");
                 break;
@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** Merge-base queries over the commit graph.
+ *
+ *  Commits are visited newest generation first. Every commit reachable from ONE
+ *  is painted PARENT1, every commit reachable from the others PARENT2; a commit
+ *  with both colors is a merge base, and everything below it is painted STALE.
+ *  Because a commit's generation is larger than all of its ancestors', the walk
+ *  can stop as soon as only stale commits are left in the queue. */
+public class MergeBase {
+
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 2;
+    private static final int STALE = 4;
+    private static final int RESULT = 8;
+
+    // newest first: higher generation, then later time
+    static int compare(int a, int b) {
+        int cmp = Integer.compare(CommitGraph.generation(b), CommitGraph.generation(a));
+        if (cmp == 0) {
+            cmp = Long.compare(CommitGraph.time(b), CommitGraph.time(a));
+        }
+        return cmp;
+    }
+
+    // all best common ancestors of ONE and any of OTHERS (graph indices)
+    static List<Integer> mergeBases(int one, int... others) {
+        for (int other : others) {
+            if (other == one) {
+                return new ArrayList<>(List.of(one));
+            }
+        }
+        List<Integer> result = paintDownToCommon(one, others);
+        return removeRedundant(result);
+    }
+
+    // merge bases of an octopus merge of all of COMMITS
+    static List<Integer> octopusBases(int... commits) {
+        List<Integer> bases = new ArrayList<>(List.of(commits[0]));
+        for (int i = 1; i < commits.length; i++) {
+            List<Integer> next = new ArrayList<>();
+            for (int base : bases) {
+                for (int found : mergeBases(base, commits[i])) {
+                    if (!next.contains(found)) {
+                        next.add(found);
+                    }
+                }
+            }
+            bases = removeRedundant(next);
+        }
+        return bases;
+    }
+
+    // the merge base to use for a two-way merge: the newest one
+    static int bestMergeBase(int a, int b) {
+        List<Integer> bases = mergeBases(a, b);
+        if (bases.isEmpty()) {
+            return CommitGraph.NONE;
+        }
+        bases.sort(MergeBase::compare);
+        return bases.get(0);
+    }
+
+    private static List<Integer> paintDownToCommon(int one, int[] others) {
+        Painter painter = new Painter();
+        List<Integer> result = new ArrayList<>();
+
+        painter.paint(one, PARENT1);
+        for (int other : others) {
+            painter.paint(other, PARENT2);
+        }
+
+        while (painter.nonStale > 0) {
+            int commit = painter.poll();
+            int commitFlags = painter.flags(commit);
+            int paint = commitFlags & (PARENT1 | PARENT2 | STALE);
+            if (paint == (PARENT1 | PARENT2)) {
+                if ((commitFlags & RESULT) == 0) {
+                    painter.flags.put(commit, commitFlags | RESULT);
+                    result.add(commit);
+                }
+                paint |= STALE;
+            }
+            for (int parent : parents(commit)) {
+                painter.paint(parent, paint);
+            }
+        }
+        // a result reached again from another base below it is not a best one
+        result.removeIf(commit -> (painter.flags(commit) & STALE) != 0);
+        return result;
+    }
+
+    /* The queue of a paint walk and the flags of every commit it met. It
+     * counts the queued entries that are not stale, so the walk can tell when
+     * to stop without scanning the queue; a commit that turns stale while
+     * queued takes all of its entries out of that count. */
+    private static class Painter {
+        final Map<Integer, Integer> flags = new HashMap<>();
+        final PriorityQueue<Integer> queue = new PriorityQueue<>(MergeBase::compare);
+        // how many times each commit is in the queue
+        final Map<Integer, Integer> queued = new HashMap<>();
+        int nonStale;
+
+        int flags(int commit) {
+            return flags.getOrDefault(commit, 0);
+        }
+
+        // adds PAINT to the flags of COMMIT and queues it, unless it had them all
+        void paint(int commit, int paint) {
+            int old = flags(commit);
+            if ((old & paint) == paint) {
+                return;
+            }
+            flags.put(commit, old | paint);
+            int entries = queued.getOrDefault(commit, 0);
+            if ((old & STALE) == 0 && (paint & STALE) != 0) {
+                nonStale -= entries;
+            }
+            queued.put(commit, entries + 1);
+            queue.add(commit);
+            if ((paint & STALE) == 0 && (old & STALE) == 0) {
+                nonStale += 1;
+            }
+        }
+
+        int poll() {
+            int commit = queue.poll();
+            queued.merge(commit, -1, Integer::sum);
+            if ((flags(commit) & STALE) == 0) {
+                nonStale -= 1;
+            }
+            return commit;
+        }
+    }
+
+    // drops every base that is an ancestor of another base
+    private static List<Integer> removeRedundant(List<Integer> bases) {
+        if (bases.size() < 2) {
+            return bases;
+        }
+        List<Integer> result = new ArrayList<>();
+        for (int base : bases) {
+            boolean redundant = false;
+            for (int other : bases) {
+                if (other != base && isAncestor(base, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(base);
+            }
+        }
+        return result;
+    }
+
+    // returns true if ANCESTOR is DESCENDANT or one of its ancestors
+    static boolean isAncestor(int ancestor, int descendant) {
+        int floor = CommitGraph.generation(ancestor);
+        // only commits at or above the floor are met, so this stays small
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(descendant);
+        seen.add(descendant);
+        while (!stack.isEmpty()) {
+            int commit = stack.pop();
+            if (commit == ancestor) {
+                return true;
+            }
+            ReachabilityBitmaps.Entry entry = ReachabilityBitmaps.entry(commit);
+            if (entry != null) {
+                // everything below COMMIT is in its bitmap
+                if (entry.commits.get(ancestor)) {
+                    return true;
+                }
+                continue;
+            }
+            for (int parent : parents(commit)) {
+                // nothing below the ancestor's generation can lead back to it
+                if (CommitGraph.generation(parent) >= floor && seen.add(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isAncestor(String ancestor, String descendant) {
+        return isAncestor(CommitGraph.indexOf(ancestor), CommitGraph.indexOf(descendant));
+    }
+
+    private static int[] parents(int commit) {
+        int parent = CommitGraph.parent(commit);
+        int parent2 = CommitGraph.parent2(commit);
+        if (parent == CommitGraph.NONE) {
+            return new int[0];
+        } else if (parent2 == CommitGraph.NONE) {
+            return new int[] {parent};
+        }
+        return new int[] {parent, parent2};
+    }
+}
@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Lets find look commits up by message without reading every commit. The
+ *  directory .gitlet/messages holds two hash tables of 256 bucket files each:
+ *  "mXX" maps whole messages to commits and "wXX" maps each word of a message
+ *  (lowercased, split at anything but letters and digits) to commits, for
+ *  find --grep. Every record is
+ *
+ *      commit id (20 bytes) | key length (4) | key (UTF-8)
+ *
+ *  and a key is found by reading the one bucket its hash selects. Buckets are
+ *  only appended to: Commit.create() adds each new commit, and the first lookup
+ *  in a repository made before the index existed builds it from all commits. */
+public class MessageIndex {
+
+    static final File DIR = join(Repository.GITLET_DIR, "messages");
+
+    private static final char MESSAGE = 'm';
+    private static final char WORD = 'w';
+
+    // adds COMMIT to the index, unless the index has yet to be built
+    static void add(Commit commit) {
+        if (DIR.exists()) {
+            write(DIR, List.of(commit));
+        }
+    }
+
+    // hashes of the commits whose message is exactly MESSAGE, in hash order
+    static List<String> exact(String message) {
+        return new ArrayList<>(lookup(MESSAGE, message));
+    }
+
+    // hashes of the commits whose message contains every word in QUERY, in hash order
+    static List<String> grep(String query) {
+        Set<String> matches = null;
+        for (String word : words(query)) {
+            Set<String> found = lookup(WORD, word);
+            if (matches == null) {
+                matches = found;
+            } else {
+                matches.retainAll(found);
+            }
+        }
+        return matches == null ? new ArrayList<>() : new ArrayList<>(matches);
+    }
+
+    // the distinct words of TEXT, lowercased
+    static Set<String> words(String text) {
+        Set<String> words = new TreeSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static Set<String> lookup(char table, String key) {
+        build();
+        Set<String> hashes = new TreeSet<>();
+        File bucket = join(DIR, bucketName(table, key));
+        if (!bucket.exists()) {
+            return hashes;
+        }
+        byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer data = ByteBuffer.wrap(readContents(bucket));
+        while (data.remaining() >= ObjectId.BYTES + 4) {
+            ObjectId id = ObjectId.read(data);
+            int length = data.getInt();
+            if (length == wanted.length
+                    && data.slice(data.position(), length).equals(ByteBuffer.wrap(wanted))) {
+                String hash = id.toHex();
+                // gc may have dropped the commit since it was indexed
+                if (ObjectStore.hasCommit(hash)) {
+                    hashes.add(hash);
+                }
+            }
+            data.position(data.position() + length);
+            Trace.count("message index records scanned", 1);
+        }
+        return hashes;
+    }
+
+    // builds the index from every commit if this repository does not have one yet
+    @SuppressWarnings("try")
+    private static void build() {
+        if (DIR.exists()) {
+            return;
+        }
+        try (Trace.Span span = Trace.span("message index build")) {
+            File temp = join(Repository.GITLET_DIR, "messages.tmp");
+            if (temp.exists()) {
+                for (String name : plainFilenamesIn(temp)) {
+                    join(temp, name).delete();
+                }
+            }
+            temp.mkdir();
+            List<Commit> commits = new ArrayList<>();
+            for (String hash : ObjectStore.commitHashes()) {
+                commits.add(ObjectStore.readCommit(hash));
+            }
+            write(temp, commits);
+            if (!temp.renameTo(DIR)) {
+                throw error("Cannot create the message index.");
+            }
+        }
+    }
+
+    // builds the index again from every stored commit, e.g. once commits have new ids
+    static void rebuild() {
+        if (DIR.exists()) {
+            for (String name : plainFilenamesIn(DIR)) {
+                join(DIR, name).delete();
+            }
+            DIR.delete();
+        }
+        build();
+    }
+
+    // appends the records of COMMITS to the buckets in DIR, opening each bucket once
+    private static void write(File dir, List<Commit> commits) {
+        Map<String, ByteArrayOutputStream> buckets = new HashMap<>();
+        for (Commit commit : commits) {
+            byte[] id = ObjectId.fromHex(commit.hash).toBytes();
+            record(buckets, MESSAGE, commit.message, id);
+            for (String word : words(commit.message)) {
+                record(buckets, WORD, word, id);
+            }
+        }
+        for (Map.Entry<String, ByteArrayOutputStream> bucket : buckets.entrySet()) {
+            try (FileOutputStream out = new FileOutputStream(join(dir, bucket.getKey()), true)) {
+                bucket.getValue().writeTo(out);
+            } catch (IOException e) {
+                throw error("Cannot write the message index.");
+            }
+        }
+    }
+
+    private static void record(Map<String, ByteArrayOutputStream> buckets, char table,
+                               String key, byte[] id) {
+        ByteArrayOutputStream bucket =
+            buckets.computeIfAbsent(bucketName(table, key), k -> new ByteArrayOutputStream());
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        bucket.writeBytes(id);
+        bucket.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        bucket.writeBytes(bytes);
+    }
+
+    // "mXX" or "wXX", XX being the top byte of a mixed String hash of KEY
+    private static String bucketName(char table, String key) {
+        int bucket = (key.hashCode() * 0x9E3779B9) >>> 24;
+        return String.format("%c%02x", table, bucket);
+    }
+}
@@ -0,0 +1,49 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded least-recently-used map from keys to loaded objects. Caches live
+ *  as long as the process, so in a daemon they carry over from one command to
+ *  the next. Only objects that cannot change under the same key (commits and
+ *  trees are named by their content) or that are explicitly invalidated on
+ *  write belong in one.
+ *
+ *  Every lookup counts a hit or a miss in the trace, under "NAME cache hits"
+ *  and "NAME cache misses"; see Trace. */
+public class ObjectCache<K, V> {
+
+    private final String hitCounter;
+    private final String missCounter;
+    private final LinkedHashMap<K, V> entries;
+
+    ObjectCache(String name, int capacity) {
+        this.hitCounter = name + " cache hits";
+        this.missCounter = name + " cache misses";
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // the cached value for KEY, or null, counting a hit or a miss
+    synchronized V get(K key) {
+        V value = entries.get(key);
+        Trace.count(value == null ? missCounter : hitCounter, 1);
+        return value;
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+}
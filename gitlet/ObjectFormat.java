@@ -0,0 +1,314 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/** How an object is laid out on disk, both as a loose file and inside a pack:
+ *
+ *      type (1 byte) | encoding (1 byte) | raw length (8 bytes) | body
+ *
+ *  where the body is either the raw data (STORED), its deflate stream
+ *  (DEFLATED) or, for large blobs, a list of the chunks holding the data
+ *  (CHUNKED, see Chunker; ObjectStore reassembles these). The compression
+ *  level comes from the gitlet.compression system property or the
+ *  GITLET_COMPRESSION environment variable (0-9, default 6); level 0 stores
+ *  everything raw. Data whose first block does not shrink by at
+ *  least MIN_SAVING is stored raw too, so already-compressed files cost no CPU. */
+public class ObjectFormat {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 1;
+    static final int CHUNKED = 2;
+    static final int HEADER = 10;
+    static final int DEFAULT_LEVEL = 6;
+    // the body must shrink to at most this fraction of the raw size to be worth inflating
+    static final double MIN_SAVING = 0.9;
+
+    static int level() {
+        return (int) Settings.number("gitlet.compression", DEFAULT_LEVEL, 0, 9);
+    }
+
+    static int type(ByteBuffer stored) {
+        return stored.get(stored.position());
+    }
+
+    static int encoding(ByteBuffer stored) {
+        return stored.get(stored.position() + 1);
+    }
+
+    static long rawLength(ByteBuffer stored) {
+        return stored.getLong(stored.position() + 2);
+    }
+
+    // the header of the loose object file STORED
+    static ByteBuffer header(File stored) {
+        try (FileChannel channel = FileChannel.open(stored.toPath(), StandardOpenOption.READ)) {
+            return header(channel);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static ByteBuffer header(FileChannel stored) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining() && stored.read(header, header.position()) >= 0) {
+            continue;
+        }
+        if (header.hasRemaining()) {
+            throw error("Truncated object.");
+        }
+        return header.flip();
+    }
+
+    /* True if the loose object file STORED, which should hold an object of
+     * TYPE, has no header: objects were stored raw before this format existed.
+     * Raw data passes for a stored object only if it starts with TYPE and a
+     * known encoding and the rest agrees with that encoding: a stored body as
+     * long as the header says, a deflate stream's zlib header, or a chunk
+     * manifest of the right size. */
+    static boolean isRaw(int type, File stored) {
+        long size = stored.length();
+        ByteBuffer start = ByteBuffer.allocate(HEADER + 4);
+        try (FileChannel channel = FileChannel.open(stored.toPath(), StandardOpenOption.READ)) {
+            while (start.hasRemaining() && channel.read(start, start.position()) >= 0) {
+                continue;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (start.position() < HEADER || type(start.flip()) != type) {
+            return true;
+        }
+        switch (encoding(start)) {
+            case STORED:
+                return rawLength(start) != size - HEADER;
+            case DEFLATED:
+                if (size < HEADER + 2) {
+                    return true;
+                }
+                int zlib = (start.get(HEADER) & 0xff) << 8 | start.get(HEADER + 1) & 0xff;
+                return (zlib >> 8 & 0x0f) != 8 || zlib % 31 != 0;
+            case CHUNKED:
+                return type != ObjectStore.BLOB || size < HEADER + 4
+                    || size != HEADER + 4 + start.getInt(HEADER) * (PackFile.HASH_BYTES + 4L);
+            default:
+                return true;
+        }
+    }
+
+    // the stored form of a blob of LENGTH bytes held in the chunks listed by MANIFEST
+    static byte[] encodeChunked(long length, byte[] manifest) {
+        ByteBuffer stored = ByteBuffer.allocate(HEADER + manifest.length);
+        stored.put(header(ObjectStore.BLOB, CHUNKED, length)).put(manifest);
+        return stored.array();
+    }
+
+    private static ByteBuffer header(int type, int encoding, long length) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.put((byte) type).put((byte) encoding).putLong(length).flip();
+        return header;
+    }
+
+    // true if the first block of data compresses well enough to bother
+    private static boolean worthCompressing(byte[] data, int length) {
+        if (level() == 0 || length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(level());
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        byte[] scratch = new byte[length];
+        int compressed = 0;
+        while (!deflater.finished() && compressed < length) {
+            compressed += deflater.deflate(scratch, compressed, length - compressed);
+        }
+        deflater.end();
+        return deflater.finished() && compressed <= length * MIN_SAVING;
+    }
+
+    // the stored form of DATA
+    static byte[] encode(int type, byte[] data) {
+        int sample = Math.min(data.length, STREAM_BUFFER);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER + data.length / 2);
+        if (!worthCompressing(data, sample)) {
+            out.writeBytes(header(type, STORED, data.length).array());
+            out.writeBytes(data);
+            return out.toByteArray();
+        }
+        out.writeBytes(header(type, DEFLATED, data.length).array());
+        Deflater deflater = new Deflater(level());
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[STREAM_BUFFER];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    // the raw data of the stored object STORED
+    static byte[] decode(ByteBuffer stored) {
+        long length = rawLength(stored);
+        byte[] data = new byte[(int) length];
+        ByteBuffer body = stored.duplicate().position(stored.position() + HEADER);
+        if (stored.get(stored.position() + 1) == STORED) {
+            body.get(data);
+            return data;
+        }
+        Inflater inflater = new Inflater();
+        inflater.setInput(body);
+        try {
+            int done = 0;
+            while (done < length) {
+                int n = inflater.inflate(data, done, data.length - done);
+                // a round without output means the stream ended early, wants a
+                // dictionary or is truncated: it will never fill DATA
+                if (n == 0) {
+                    throw error("Corrupt object.");
+                }
+                done += n;
+            }
+        } catch (DataFormatException e) {
+            throw error("Corrupt object.");
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /* Writes FILE to DEST in stored form and returns the SHA-1 of its raw
+     * contents. The file is read, hashed and deflated one
+     * buffer at a time; the raw length in the header is filled in at the end. */
+    static String encode(int type, File file, File dest) {
+        MessageDigest md = sha1Digest();
+        ByteBuffer in = ByteBuffer.allocate(STREAM_BUFFER);
+        byte[] out = new byte[STREAM_BUFFER];
+        Deflater deflater = null;
+        long length = 0;
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel sink = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            boolean first = true;
+            while (source.read(in) >= 0) {
+                in.flip();
+                int n = in.limit();
+                md.update(in.array(), 0, n);
+                length += n;
+                if (first) {
+                    first = false;
+                    int encoding = worthCompressing(in.array(), n) ? DEFLATED : STORED;
+                    writeFully(sink, header(type, encoding, 0));
+                    if (encoding == DEFLATED) {
+                        deflater = new Deflater(level());
+                    }
+                }
+                if (deflater == null) {
+                    writeFully(sink, in);
+                } else {
+                    deflater.setInput(in.array(), 0, n);
+                    while (!deflater.needsInput()) {
+                        writeFully(sink, ByteBuffer.wrap(out, 0, deflater.deflate(out)));
+                    }
+                }
+                in.clear();
+            }
+            if (first) {
+                writeFully(sink, header(type, STORED, 0));
+            }
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    writeFully(sink, ByteBuffer.wrap(out, 0, deflater.deflate(out)));
+                }
+            }
+            ByteBuffer size = ByteBuffer.allocate(8).putLong(length).flip();
+            sink.write(size, 2);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /* Appends the raw contents of the loose object file STORED to SINK. A
+     * stored body is copied with FileChannel.transferTo, so it never enters
+     * this process. A deflated one is inflated into a pooled direct buffer:
+     * from the file mapped into memory if it is larger than such a buffer,
+     * else read into another pooled buffer, as mapping a small file costs
+     * more than reading it. */
+    static void copy(File stored, FileChannel sink) throws IOException {
+        try (FileChannel source = FileChannel.open(stored.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = header(source);
+            long size = source.size();
+            if (header.get(1) == STORED) {
+                long position = HEADER;
+                while (position < size) {
+                    position += source.transferTo(position, size - position, sink);
+                }
+            } else if (size > BufferPool.SIZE) {
+                copy(source.map(FileChannel.MapMode.READ_ONLY, 0, size), sink);
+            } else {
+                ByteBuffer whole = BufferPool.take();
+                try {
+                    while (whole.hasRemaining() && source.read(whole) >= 0) {
+                        continue;
+                    }
+                    copy(whole.flip(), sink);
+                } finally {
+                    BufferPool.give(whole);
+                }
+            }
+        }
+    }
+
+    /* Appends the raw contents of the stored object STORED (e.g. a slice of a
+     * mapped pack) to SINK. Stored bodies are written straight from STORED;
+     * deflated ones are inflated one pooled direct buffer at a time. */
+    static void copy(ByteBuffer stored, FileChannel sink) throws IOException {
+        ByteBuffer body = stored.duplicate().position(stored.position() + HEADER);
+        if (stored.get(stored.position() + 1) == STORED) {
+            writeFully(sink, body);
+            return;
+        }
+        Inflater inflater = new Inflater();
+        inflater.setInput(body);
+        ByteBuffer buffer = BufferPool.take();
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer.clear());
+                // the buffer has room, so a round that neither writes nor ends
+                // the stream would repeat forever
+                if (n == 0 && !inflater.finished()) {
+                    throw error("Corrupt object.");
+                }
+                writeFully(sink, buffer.flip());
+            }
+        } catch (DataFormatException e) {
+            throw error("Corrupt object.");
+        } finally {
+            inflater.end();
+            BufferPool.give(buffer);
+        }
+    }
+
+    static void writeFully(FileChannel sink, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            sink.write(data);
+        }
+    }
+}
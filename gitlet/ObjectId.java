@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** A SHA-1 object id held as raw bits: the first 8 bytes in hi, the next 8
+ *  in mid and the last 4 in lo, all big-endian. It takes 32 bytes of heap
+ *  where the 40-character hex String takes about 80, compares and hashes
+ *  without touching characters, and converts to and from hex through lookup
+ *  tables. Commits, trees and the branch map hold ObjectIds; hex Strings
+ *  remain the form ids take on the command line, in object file names and in
+ *  the stage, so conversion happens at those edges. */
+public final class ObjectId implements Comparable<ObjectId> {
+
+    static final int BYTES = 20;
+    static final int HEX_LENGTH = 40;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            DIGITS[HEX[i]] = (byte) i;
+            DIGITS[Character.toUpperCase(HEX[i])] = (byte) i;
+        }
+    }
+
+    final long hi;
+    final long mid;
+    final int lo;
+
+    ObjectId(long hi, long mid, int lo) {
+        this.hi = hi;
+        this.mid = mid;
+        this.lo = lo;
+    }
+
+    // true if TEXT is a full 40-digit hex id
+    static boolean isHex(String text) {
+        if (text == null || text.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            char c = text.charAt(i);
+            if (c >= 128 || DIGITS[c] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static ObjectId fromHex(String hex) {
+        if (!isHex(hex)) {
+            throw Utils.error("Not an object id: %s", hex);
+        }
+        return new ObjectId(hexBits(hex, 0, 16), hexBits(hex, 16, 16), (int) hexBits(hex, 32, 8));
+    }
+
+    private static long hexBits(String hex, int start, int digits) {
+        long bits = 0;
+        for (int i = start; i < start + digits; i++) {
+            bits = (bits << 4) | DIGITS[hex.charAt(i)];
+        }
+        return bits;
+    }
+
+    static ObjectId fromBytes(byte[] raw) {
+        return read(ByteBuffer.wrap(raw));
+    }
+
+    // reads 20 bytes at the position of IN, advancing it
+    static ObjectId read(ByteBuffer in) {
+        return new ObjectId(in.getLong(), in.getLong(), in.getInt());
+    }
+
+    // reads 20 bytes at absolute INDEX of IN
+    static ObjectId read(ByteBuffer in, int index) {
+        return new ObjectId(in.getLong(index), in.getLong(index + 8), in.getInt(index + 16));
+    }
+
+    void write(ByteBuffer out) {
+        out.putLong(hi).putLong(mid).putInt(lo);
+    }
+
+    byte[] toBytes() {
+        ByteBuffer out = ByteBuffer.allocate(BYTES);
+        write(out);
+        return out.array();
+    }
+
+    String toHex() {
+        char[] text = new char[HEX_LENGTH];
+        hexDigits(hi, text, 0, 16);
+        hexDigits(mid, text, 16, 16);
+        hexDigits(lo & 0xffffffffL, text, 32, 8);
+        return new String(text);
+    }
+
+    private static void hexDigits(long bits, char[] text, int start, int digits) {
+        for (int i = start + digits - 1; i >= start; i--) {
+            text[i] = HEX[(int) bits & 0xf];
+            bits >>>= 4;
+        }
+    }
+
+    // the first byte, as the 0-255 fan-out bucket of this id
+    int firstByte() {
+        return (int) (hi >>> 56);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId id = (ObjectId) other;
+        return hi == id.hi && mid == id.mid && lo == id.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        // the bits are already uniformly distributed
+        return (int) mid;
+    }
+
+    // unsigned byte order, the same order as the hex Strings
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(hi, other.hi);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(mid, other.mid);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(lo, other.lo);
+        }
+        return cmp;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/** A map from object ids to non-negative ints, e.g. commit hash to graph
+ *  index, kept in flat primitive arrays with open addressing. An entry costs
+ *  24 bytes plus slack, where a HashMap<String, Integer> entry with its String
+ *  and Integer costs well over 150. Entries can only be added or replaced. */
+public class ObjectIdIntMap {
+
+    static final int MISSING = -1;
+
+    private long[] his;
+    private long[] mids;
+    private int[] los;
+    private int[] values; // MISSING marks a free slot
+    private int size;
+
+    ObjectIdIntMap() {
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        his = new long[capacity];
+        mids = new long[capacity];
+        los = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // the slot holding ID, or the free slot where it would go
+    private int slot(long hi, long mid, int lo) {
+        int mask = values.length - 1;
+        int i = (int) mid & mask;
+        while (values[i] != MISSING && (his[i] != hi || mids[i] != mid || los[i] != lo)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // the value of ID, or MISSING
+    int get(ObjectId id) {
+        return values[slot(id.hi, id.mid, id.lo)];
+    }
+
+    boolean containsKey(ObjectId id) {
+        return get(id) != MISSING;
+    }
+
+    void put(ObjectId id, int value) {
+        put(id.hi, id.mid, id.lo, value);
+    }
+
+    private void put(long hi, long mid, int lo, int value) {
+        int i = slot(hi, mid, lo);
+        if (values[i] == MISSING) {
+            size += 1;
+            his[i] = hi;
+            mids[i] = mid;
+            los[i] = lo;
+        }
+        values[i] = value;
+        // keep the table at most half full so probes stay short
+        if (size * 2 > values.length) {
+            long[] oldHis = his;
+            long[] oldMids = mids;
+            int[] oldLos = los;
+            int[] oldValues = values;
+            allocate(values.length * 2);
+            size = 0;
+            for (int j = 0; j < oldValues.length; j++) {
+                if (oldValues[j] != MISSING) {
+                    put(oldHis[j], oldMids[j], oldLos[j], oldValues[j]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Turns a commit id as typed on the command line, full or abbreviated, into
+ *  the full id. Every command that takes a commit id goes through here.
+ *
+ *  An abbreviation is looked up where the commits already are, without
+ *  listing them all: among loose commits, only the fan-out directory named by
+ *  its first two digits is read, and in each pack the ids starting with it
+ *  are a contiguous run of the sorted index, found by binary search for the
+ *  smallest id the prefix allows within the first byte's fan-out bucket. */
+public class ObjectResolver {
+
+    // ids listed in an ambiguity error
+    static final int MAX_CANDIDATES = 5;
+
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    /* The full id of the commit whose id starts with PREFIX. Throws "No commit
+     * with that id exists." if none does, and lists the candidates if more than
+     * one does. */
+    @SuppressWarnings("try")
+    static String resolveCommit(String prefix) {
+        String lower = prefix.toLowerCase(Locale.ROOT);
+        if (ObjectId.isHex(lower)) {
+            if (!ObjectStore.hasCommit(lower)) {
+                throw error("No commit with that id exists.");
+            }
+            return lower;
+        }
+        if (lower.isEmpty() || lower.length() > ObjectId.HEX_LENGTH
+                || !lower.chars().allMatch(c -> HEX_DIGITS.indexOf(c) >= 0)) {
+            throw error("No commit with that id exists.");
+        }
+        List<String> matches;
+        try (Trace.Span span = Trace.span("resolve id")) {
+            matches = matches(lower);
+        }
+        if (matches.isEmpty()) {
+            throw error("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            throw error("Commit id %s is ambiguous; it could be %s%s", prefix,
+                String.join(", ", matches.subList(0, Math.min(matches.size(), MAX_CANDIDATES))),
+                matches.size() > MAX_CANDIDATES ? ", ..." : ".");
+        }
+        return matches.get(0);
+    }
+
+    // ids of the commits starting with the hex digits PREFIX, at most MAX_CANDIDATES + 1
+    private static List<String> matches(String prefix) {
+        ObjectId low = ObjectId.fromHex(pad(prefix, '0'));
+        ObjectId high = ObjectId.fromHex(pad(prefix, 'f'));
+        // each source gives its first ids in order, so the first of all of them are among these
+        Set<String> found = new TreeSet<>(ObjectStore.looseHashes(ObjectStore.COMMIT, prefix));
+        for (PackFile pack : ObjectStore.packs()) {
+            found.addAll(pack.hashes(ObjectStore.COMMIT, low, high, MAX_CANDIDATES + 1));
+        }
+        List<String> matches = new ArrayList<>(found);
+        return matches.subList(0, Math.min(matches.size(), MAX_CANDIDATES + 1));
+    }
+
+    private static String pad(String prefix, char digit) {
+        return prefix + String.valueOf(digit).repeat(ObjectId.HEX_LENGTH - prefix.length());
+    }
+}
@@ -0,0 +1,623 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** Where commits, trees and blobs live. An object is either a loose file or an
+ *  entry in one of the packs under PACKS. Everything that reads or writes an
+ *  object by hash should go through here.
+ *
+ *  Loose objects are fanned out over subdirectories named by the first two hex
+ *  digits of their hash, so object ab12... is COMMITS, TREES or BLOBS/ab/12...
+ *  and no directory grows past 1/256 of the objects. The file LAYOUT marks a
+ *  repository as using this layout; the first time one without it is opened,
+ *  its loose objects are moved in place from the flat layout. */
+public class ObjectStore {
+
+    static final int COMMIT = 1;
+    static final int BLOB = 2;
+    static final int TREE = 3;
+    // a piece of a large blob; see Chunker
+    static final int CHUNK = 4;
+
+    static final File PACKS = join(Repository.GITLET_DIR, "packs");
+    static final File LAYOUT = join(Repository.GITLET_DIR, "layout");
+    static final File CHUNKS = join(Repository.GITLET_DIR, "chunks");
+
+    // hex digits of the hash that name the subdirectory of a loose object
+    static final int FANOUT_DIGITS = 2;
+
+    private static volatile boolean layoutChecked;
+
+    // packs of this repository, opened on first use
+    private static List<PackFile> packs;
+
+    // objects known to exist (hash -> type), and commits already deserialized
+    static final ObjectCache<String, Integer> KNOWN = new ObjectCache<>("object", 1 << 16);
+    static final ObjectCache<String, Commit> COMMIT_CACHE = new ObjectCache<>("commit", 1 << 10);
+
+    static synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(PACKS);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith("pack-") && name.endsWith(".pack")) {
+                        String base = name.substring(0, name.length() - ".pack".length());
+                        File idx = join(PACKS, base + ".idx");
+                        if (idx.exists()) {
+                            packs.add(new PackFile(join(PACKS, name), idx));
+                        }
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    static boolean isHash(String hash) {
+        return ObjectId.isHex(hash);
+    }
+
+    private static File looseDir(int type) {
+        switch (type) {
+            case COMMIT:
+                return Repository.COMMITS;
+            case TREE:
+                return Repository.TREES;
+            case CHUNK:
+                return CHUNKS;
+            default:
+                return Repository.BLOBS;
+        }
+    }
+
+    // the file of loose object HASH, whether or not it exists
+    private static File looseFile(int type, String hash) {
+        checkLayout();
+        return join(looseDir(type), hash.substring(0, FANOUT_DIGITS),
+            hash.substring(FANOUT_DIGITS));
+    }
+
+    // LOOSE with its fan-out directory created
+    private static File creatingParent(File loose) {
+        loose.getParentFile().mkdirs();
+        return loose;
+    }
+
+    // hashes of the loose objects of TYPE, in lexicographic order
+    static List<String> looseHashes(int type) {
+        return looseHashes(type, "");
+    }
+
+    /* Hashes of the loose objects of TYPE that start with the hex digits
+     * PREFIX, in lexicographic order. Only the fan-out directories the prefix
+     * allows are listed: one once it has two digits. */
+    static List<String> looseHashes(int type, String prefix) {
+        checkLayout();
+        List<String> hashes = new ArrayList<>();
+        String[] shards;
+        if (prefix.length() >= FANOUT_DIGITS) {
+            shards = new String[] {prefix.substring(0, FANOUT_DIGITS)};
+        } else {
+            shards = looseDir(type).list((dir, name) -> name.startsWith(prefix));
+            if (shards == null) {
+                return hashes;
+            }
+            Arrays.sort(shards);
+        }
+        for (String shard : shards) {
+            List<String> names = plainFilenamesIn(join(looseDir(type), shard));
+            if (shard.length() == FANOUT_DIGITS && names != null) {
+                for (String name : names) {
+                    if ((shard + name).startsWith(prefix)) {
+                        hashes.add(shard + name);
+                    }
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private static void checkLayout() {
+        if (layoutChecked || !Repository.GITLET_DIR.exists()) {
+            return;
+        }
+        synchronized (ObjectStore.class) {
+            if (!layoutChecked) {
+                if (!LAYOUT.exists()) {
+                    upgradeLayout();
+                }
+                layoutChecked = true;
+            }
+        }
+    }
+
+    /* Moves the loose objects of a repository made with the flat layout into
+     * fan-out directories. Objects from before ObjectFormat's header existed
+     * are stored raw; these are written out with a header and their flat copy
+     * deleted, the rest are renamed. The marker is written last, so an
+     * interrupted upgrade just carries on the next time. */
+    @SuppressWarnings("try")
+    private static void upgradeLayout() {
+        try (Trace.Span span = Trace.span("layout upgrade")) {
+            for (int type : new int[] {COMMIT, TREE, BLOB}) {
+                List<String> names = plainFilenamesIn(looseDir(type));
+                if (names == null) {
+                    continue;
+                }
+                for (String hash : names) {
+                    if (isHash(hash)) {
+                        File flat = join(looseDir(type), hash);
+                        File loose = join(looseDir(type), hash.substring(0, FANOUT_DIGITS),
+                            hash.substring(FANOUT_DIGITS));
+                        if (ObjectFormat.isRaw(type, flat)) {
+                            writeContents(creatingParent(loose),
+                                ObjectFormat.encode(type, readContents(flat)));
+                            flat.delete();
+                            Trace.count("raw objects given a header", 1);
+                        } else if (!flat.renameTo(creatingParent(loose))) {
+                            throw error("Cannot move object %s into %s", hash,
+                                loose.getParentFile().getPath());
+                        }
+                        Trace.count("objects moved to fan-out", 1);
+                    }
+                }
+            }
+            writeContents(LAYOUT, "fanout\n");
+        }
+    }
+
+    static boolean has(int type, String hash) {
+        if (!isHash(hash)) {
+            return false;
+        }
+        Integer known = KNOWN.get(hash);
+        if (known != null && known == type) {
+            return true;
+        }
+        boolean found = looseFile(type, hash).exists();
+        for (int i = 0; !found && i < packs().size(); i++) {
+            found = packs().get(i).contains(type, hash);
+        }
+        if (found) {
+            KNOWN.put(hash, type);
+        }
+        return found;
+    }
+
+    // returns the raw data of an object, or null if there is no such object
+    static byte[] read(int type, String hash) {
+        if (!isHash(hash)) {
+            return null;
+        }
+        File loose = looseFile(type, hash);
+        if (loose.exists()) {
+            Trace.count("objects read (loose)", 1);
+            ByteBuffer stored = ByteBuffer.wrap(readContents(loose));
+            return ObjectFormat.encoding(stored) == ObjectFormat.CHUNKED ? Chunker.join(stored)
+                : ObjectFormat.decode(stored);
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(type, hash)) {
+                Trace.count("objects read (packed)", 1);
+                if (type == BLOB && !pack.isDelta(type, hash)) {
+                    ByteBuffer stored = pack.slice(type, hash);
+                    if (ObjectFormat.encoding(stored) == ObjectFormat.CHUNKED) {
+                        return Chunker.join(stored);
+                    }
+                }
+                return pack.read(type, hash);
+            }
+        }
+        return null;
+    }
+
+    static void write(int type, String hash, byte[] data) {
+        if (has(type, hash)) {
+            return;
+        }
+        File loose = creatingParent(looseFile(type, hash));
+        writeContents(loose, ObjectFormat.encode(type, data));
+        KNOWN.put(hash, type);
+        Trace.count("objects written", 1);
+    }
+
+    /* Stores DATA as the loose object HASH even if that object already exists,
+     * e.g. to change the format it is stored in. Returns true if a packed copy
+     * exists too; the loose one shadows it until the next repack. */
+    static boolean rewrite(int type, String hash, byte[] data) {
+        File loose = creatingParent(looseFile(type, hash));
+        writeContents(loose, ObjectFormat.encode(type, data));
+        KNOWN.put(hash, type);
+        for (PackFile pack : packs()) {
+            if (pack.contains(type, hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // deletes the loose copy of object HASH, if there is one; returns the bytes freed
+    static long deleteLoose(int type, String hash) {
+        File loose = looseFile(type, hash);
+        long length = loose.length();
+        KNOWN.remove(hash);
+        if (!loose.delete()) {
+            return 0;
+        }
+        // succeeds only once its fan-out directory is empty
+        loose.getParentFile().delete();
+        return length;
+    }
+
+    static boolean isLoose(int type, String hash) {
+        return looseFile(type, hash).exists();
+    }
+
+    // when object HASH was first stored, by its loose file or its pack entry; 0 if missing
+    static long lastModified(int type, String hash) {
+        File loose = looseFile(type, hash);
+        if (loose.exists()) {
+            return loose.lastModified();
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(type, hash)) {
+                return pack.time(type, hash);
+            }
+        }
+        return 0;
+    }
+
+    /* Gives the packed object HASH a loose copy dated as the pack dates it, so that a
+     * repack leaving it out keeps it, and its age still counts from when it
+     * was first stored. */
+    static void loosen(int type, String hash) {
+        for (PackFile pack : packs()) {
+            if (pack.contains(type, hash)) {
+                File loose = creatingParent(looseFile(type, hash));
+                if (pack.isDelta(type, hash)) {
+                    writeContents(loose, ObjectFormat.encode(type, pack.read(type, hash)));
+                } else {
+                    writeContents(loose, pack.slice(type, hash));
+                }
+                loose.setLastModified(pack.time(type, hash));
+                return;
+            }
+        }
+    }
+
+    static boolean hasCommit(String hash) {
+        return has(COMMIT, hash);
+    }
+
+    // the commit named HASH; callers share the returned object and must not change it
+    static Commit readCommit(String hash) {
+        Commit commit = COMMIT_CACHE.get(hash);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] data = read(COMMIT, hash);
+        if (data == null) {
+            throw error("No commit with that id exists.");
+        }
+        commit = Codec.decodeCommit(hash, data);
+        COMMIT_CACHE.put(hash, commit);
+        return commit;
+    }
+
+    static Commit readCommit(ObjectId id) {
+        return readCommit(id.toHex());
+    }
+
+    static boolean hasBlob(String hash) {
+        return has(BLOB, hash);
+    }
+
+    static byte[] readBlob(String hash) {
+        byte[] data = read(BLOB, hash);
+        if (data == null) {
+            throw error("Missing blob %s", hash);
+        }
+        return data;
+    }
+
+    static void writeBlob(String hash, byte[] content) {
+        write(BLOB, hash, content);
+    }
+
+    /* Stores the contents of FILE as a blob and returns its id, the SHA-1 of
+     * the contents alone. The file is hashed and compressed while it is copied
+     * through a fixed-size buffer, so memory use does not grow with its size. */
+    static String writeBlob(File file) {
+        if (file.length() > Chunker.threshold()) {
+            return Chunker.writeBlob(file);
+        }
+        File temp = tempFile();
+        try {
+            String hash = ObjectFormat.encode(BLOB, file, temp);
+            if (has(BLOB, hash) || !temp.renameTo(creatingParent(looseFile(BLOB, hash)))) {
+                temp.delete();
+            } else {
+                KNOWN.put(hash, BLOB);
+                Trace.count("objects written", 1);
+            }
+            return hash;
+        } catch (IllegalArgumentException e) {
+            temp.delete();
+            throw e;
+        }
+    }
+
+    // stores a blob that Chunker has split into chunks, given its MANIFEST
+    static void writeChunked(String hash, long length, byte[] manifest) {
+        if (has(BLOB, hash)) {
+            return;
+        }
+        writeContents(creatingParent(looseFile(BLOB, hash)),
+            ObjectFormat.encodeChunked(length, manifest));
+        KNOWN.put(hash, BLOB);
+        Trace.count("objects written", 1);
+    }
+
+    // writes the contents of blob HASH to DEST without loading it into the heap
+    @SuppressWarnings("try")
+    static void copyBlob(String hash, File dest) {
+        try (Trace.Span span = Trace.span("copy blob");
+             FileChannel sink = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            copyObject(BLOB, hash, sink);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /* Appends the raw contents of object HASH to SINK. Loose and packed bodies
+     * go from the file or the mapped pack to SINK through ObjectFormat.copy;
+     * only deltas, which need their base, are rebuilt on the heap. */
+    private static void copyObject(int type, String hash, FileChannel sink) throws IOException {
+        File loose = looseFile(type, hash);
+        if (loose.exists()) {
+            if (ObjectFormat.encoding(ObjectFormat.header(loose)) == ObjectFormat.CHUNKED) {
+                copyChunks(ByteBuffer.wrap(readContents(loose)), sink);
+            } else {
+                ObjectFormat.copy(loose, sink);
+            }
+            return;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(type, hash)) {
+                if (pack.isDelta(type, hash)) {
+                    ObjectFormat.writeFully(sink, ByteBuffer.wrap(pack.read(type, hash)));
+                } else if (ObjectFormat.encoding(pack.slice(type, hash)) == ObjectFormat.CHUNKED) {
+                    copyChunks(pack.slice(type, hash), sink);
+                } else {
+                    ObjectFormat.copy(pack.slice(type, hash), sink);
+                }
+                return;
+            }
+        }
+        throw error(type == CHUNK ? "Missing chunk %s" : "Missing blob %s", hash);
+    }
+
+    // ids of the chunks blob HASH is stored in; empty unless it is stored chunked
+    static List<ObjectId> chunkIds(String hash) {
+        File loose = looseFile(BLOB, hash);
+        if (loose.exists()) {
+            return ObjectFormat.encoding(ObjectFormat.header(loose)) == ObjectFormat.CHUNKED
+                ? Chunker.chunkIds(ByteBuffer.wrap(readContents(loose))) : List.of();
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(BLOB, hash)) {
+                return !pack.isDelta(BLOB, hash)
+                    && ObjectFormat.encoding(pack.slice(BLOB, hash)) == ObjectFormat.CHUNKED
+                    ? Chunker.chunkIds(pack.slice(BLOB, hash)) : List.of();
+            }
+        }
+        return List.of();
+    }
+
+    // appends the chunks listed in the stored manifest MANIFEST to SINK, in order
+    private static void copyChunks(ByteBuffer manifest, FileChannel sink) throws IOException {
+        for (ObjectId chunk : Chunker.chunkIds(manifest)) {
+            copyObject(CHUNK, chunk.toHex(), sink);
+        }
+    }
+
+    private static File tempFile() {
+        try {
+            return Files.createTempFile(Repository.GITLET_DIR.toPath(), "tmp-", null).toFile();
+        } catch (IOException e) {
+            throw error("Cannot create a temporary file in .gitlet");
+        }
+    }
+
+    // hashes of all objects of TYPE, loose or packed, in lexicographic order
+    static List<String> hashes(int type) {
+        Set<String> result = new TreeSet<>(looseHashes(type));
+        for (PackFile pack : packs()) {
+            result.addAll(pack.hashes(type));
+        }
+        return new ArrayList<>(result);
+    }
+
+    static List<String> commitHashes() {
+        return hashes(COMMIT);
+    }
+
+    // blobs larger than this are never deltified, and always chunked (see Chunker.threshold)
+    static final long MAX_DELTA_SIZE = 16L * 1024 * 1024;
+
+    // raw size of an object, read from its header where possible
+    static long rawSize(int type, String hash) {
+        File loose = looseFile(type, hash);
+        if (loose.exists()) {
+            return ObjectFormat.rawLength(ObjectFormat.header(loose));
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(type, hash)) {
+                return pack.isDelta(type, hash) ? pack.read(type, hash).length
+                        : ObjectFormat.rawLength(pack.slice(type, hash));
+            }
+        }
+        return 0;
+    }
+
+    // bytes taken by loose objects and packs
+    static long diskUsage() {
+        long total = 0;
+        for (File dir : new File[] {Repository.BLOBS, Repository.TREES, Repository.COMMITS,
+            CHUNKS, PACKS}) {
+            if (!dir.exists()) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(dir.toPath())) {
+                total += files.map(Path::toFile).filter(File::isFile)
+                    .mapToLong(File::length).sum();
+            } catch (IOException e) {
+                throw error("Cannot read %s", dir.getPath());
+            }
+        }
+        return total;
+    }
+
+    // a file name each blob is committed under, so versions of a file can be grouped
+    private static Map<String, String> blobNames() {
+        Map<String, String> names = new HashMap<>();
+        Set<ObjectId> trees = new HashSet<>();
+        for (String hash : commitHashes()) {
+            ObjectId tree = readCommit(hash).tree;
+            if (trees.add(tree)) {
+                for (Map.Entry<String, String> file : Tree.flatten(tree).entrySet()) {
+                    names.putIfAbsent(file.getValue(), file.getKey());
+                }
+            }
+        }
+        return names;
+    }
+
+    /* Moves every loose object and every existing pack into one new pack. Blobs
+     * are sorted by the name they are committed under and then by size, largest
+     * first, so that the pack writer sees versions of the same file together and
+     * can store them as deltas of each other. */
+    static void repack() {
+        repack(Map.of());
+    }
+
+    /* Repacks, leaving out the objects in EXCLUDED, ids by type: their packed
+     * copies are dropped and their loose copies, if any, stay loose. */
+    @SuppressWarnings("try")
+    static void repack(Map<Integer, Set<ObjectId>> excluded) {
+        try (Trace.Span span = Trace.span("repack")) {
+            packAll(excluded);
+        }
+    }
+
+    private static void packAll(Map<Integer, Set<ObjectId>> excluded) {
+        PACKS.mkdir();
+        List<PackFile> oldPacks = new ArrayList<>(packs());
+        List<File> loose = new ArrayList<>();
+        PackWriter writer = new PackWriter(PACKS);
+        try {
+            for (int type : new int[] {COMMIT, TREE, CHUNK}) {
+                for (String hash : looseHashes(type)) {
+                    if (isExcluded(excluded, type, hash)) {
+                        continue;
+                    }
+                    File file = looseFile(type, hash);
+                    writer.append(hash, type, file);
+                    loose.add(file);
+                }
+                for (PackFile pack : oldPacks) {
+                    for (String hash : pack.hashes(type)) {
+                        if (!isExcluded(excluded, type, hash)) {
+                            writer.append(hash, type, pack.slice(type, hash),
+                                pack.time(type, hash));
+                        }
+                    }
+                }
+            }
+            Map<String, String> names = blobNames();
+            Map<String, Long> sizes = new HashMap<>();
+            List<String> blobs = hashes(BLOB);
+            blobs.removeIf(hash -> isExcluded(excluded, BLOB, hash));
+            for (String hash : blobs) {
+                sizes.put(hash, rawSize(BLOB, hash));
+            }
+            blobs.sort(Comparator.comparing((String hash) -> names.getOrDefault(hash, ""))
+                    .thenComparing(hash -> -sizes.get(hash)));
+            for (String hash : blobs) {
+                File file = looseFile(BLOB, hash);
+                // a chunked blob keeps its manifest, however small Chunker.threshold() made it
+                if (sizes.get(hash) <= MAX_DELTA_SIZE && chunkIds(hash).isEmpty()) {
+                    writer.appendBlob(hash, read(BLOB, hash), lastModified(BLOB, hash));
+                } else if (file.exists()) {
+                    writer.append(hash, BLOB, file);
+                } else {
+                    for (PackFile pack : oldPacks) {
+                        if (pack.contains(BLOB, hash)) {
+                            writer.append(hash, BLOB, pack.slice(BLOB, hash),
+                                pack.time(BLOB, hash));
+                            break;
+                        }
+                    }
+                }
+                if (file.exists()) {
+                    loose.add(file);
+                }
+            }
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        List<File> newPacks = new ArrayList<>();
+        if (writer.size() > 0) {
+            for (PackFile pack : writer.finish()) {
+                newPacks.add(pack.packFile);
+            }
+        } else if (oldPacks.isEmpty()) {
+            writer.abort();
+            return;
+        } else {
+            // everything packed was left out
+            writer.abort();
+        }
+        for (File file : loose) {
+            file.delete();
+            // succeeds only once its fan-out directory is empty
+            file.getParentFile().delete();
+        }
+        for (PackFile pack : oldPacks) {
+            if (!newPacks.contains(pack.packFile)) {
+                pack.packFile.delete();
+                pack.idxFile.delete();
+            }
+        }
+        packs = null;
+        KNOWN.clear();
+    }
+
+    // true if EXCLUDED, ids by type, holds object HASH of TYPE
+    private static boolean isExcluded(Map<Integer, Set<ObjectId>> excluded, int type,
+                                      String hash) {
+        Set<ObjectId> ids = excluded.get(type);
+        return ids != null && ids.contains(ObjectId.fromHex(hash));
+    }
+}
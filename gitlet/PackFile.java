@@ -0,0 +1,281 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A read-only view of one pack: a .pack file holding many objects back to back
+ *  and a .idx file mapping each object hash to its offset in the pack.
+ *
+ *  pack: "GPAK" version, then for every object: type (1 byte), length (4 bytes), data
+ *  idx:  "GIDX" version, fanout[256], sorted 20-byte hashes, 8-byte offsets,
+ *        8-byte times
+ *
+ *  fanout[b] is the number of hashes whose first byte is <= b, so a lookup only
+ *  binary searches one bucket of the sorted hashes. A chunk and a blob may have
+ *  the same id, so equal hashes sit next to each other, ordered by type, and a
+ *  lookup is always for a hash of a given type. Both files are memory-mapped.
+ *
+ *  The time of an object is when it was first stored, in milliseconds, kept
+ *  as it moves from loose file to pack and from pack to pack, so that gc
+ *  ages an unreachable object from then and not from the last repack. An
+ *  index of version 1 has no times; its objects date from the pack file.
+ *
+ *  Offsets are 8 bytes, but a mapping cannot reach past 2 GiB, so PackWriter
+ *  starts a new pack before one grows past MAX_SIZE and a larger pack is
+ *  refused when opened.
+ *
+ *  The data of an entry is the object in ObjectFormat, unless its type has the
+ *  DELTA bit set: then it is the 20-byte hash of a base object in the same pack
+ *  followed by a Delta (in ObjectFormat) that rebuilds the object from that base.
+ *  Rebuilt bases are kept in a small cache, since neighbouring versions of a file
+ *  tend to share them. */
+public class PackFile {
+
+    static final int PACK_MAGIC = 0x4750414b; // "GPAK"
+    static final int IDX_MAGIC = 0x47494458; // "GIDX"
+    static final int VERSION = 1;
+    static final int IDX_VERSION = 2;
+    static final int HASH_BYTES = 20;
+    static final int FANOUT_OFFSET = 8;
+    static final int HASHES_OFFSET = FANOUT_OFFSET + 256 * 4;
+    static final int PACK_HEADER = 8;
+    static final int ENTRY_HEADER = 5;
+    static final int DELTA = 0x40;
+    static final long BASE_CACHE_BYTES = 32L * 1024 * 1024;
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    final File packFile;
+    final File idxFile;
+    private final MappedByteBuffer pack;
+    private final MappedByteBuffer idx;
+    private final int count;
+    private final boolean timed;
+    // rebuilt delta bases, least recently used first
+    private final LinkedHashMap<String, byte[]> bases = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    PackFile(File packFile, File idxFile) {
+        this.packFile = packFile;
+        this.idxFile = idxFile;
+        this.pack = map(packFile);
+        this.idx = map(idxFile);
+        if (pack.getInt(0) != PACK_MAGIC || idx.getInt(0) != IDX_MAGIC) {
+            throw error("Corrupt pack %s", packFile.getName());
+        }
+        this.count = idx.getInt(FANOUT_OFFSET + 255 * 4);
+        this.timed = idx.getInt(4) >= IDX_VERSION;
+    }
+
+    private static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > MAX_SIZE) {
+                throw error("Pack %s is too large to read", file.getName());
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw error("Cannot open pack %s", file.getName());
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    // returns the position of object HASH of TYPE in the sorted hash table, or -1
+    int find(int type, String hash) {
+        ObjectId key = ObjectId.fromHex(hash);
+        int first = key.firstByte();
+        int lo = first == 0 ? 0 : idx.getInt(FANOUT_OFFSET + (first - 1) * 4);
+        int hi = idx.getInt(FANOUT_OFFSET + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                // the few entries sharing this id are next to each other
+                while (mid > lo && compareAt(mid - 1, key) == 0) {
+                    mid -= 1;
+                }
+                for (; mid <= hi && compareAt(mid, key) == 0; mid++) {
+                    if (typeAt(mid) == type) {
+                        return mid;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // compares the id at POSITION with KEY a word at a time
+    private int compareAt(int position, ObjectId key) {
+        int base = HASHES_OFFSET + position * HASH_BYTES;
+        int cmp = Long.compareUnsigned(idx.getLong(base), key.hi);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(idx.getLong(base + 8), key.mid);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(idx.getInt(base + 16), key.lo);
+        }
+        return cmp;
+    }
+
+    boolean contains(int type, String hash) {
+        return find(type, hash) >= 0;
+    }
+
+    // offset of the entry header for the object at POSITION
+    long offsetAt(int position) {
+        return idx.getLong(HASHES_OFFSET + count * HASH_BYTES + position * 8);
+    }
+
+    // when object HASH of TYPE was first stored, in milliseconds; 0 if it is not in this pack
+    long time(int type, String hash) {
+        int position = find(type, hash);
+        if (position < 0) {
+            return 0;
+        } else if (!timed) {
+            return packFile.lastModified();
+        }
+        return idx.getLong(HASHES_OFFSET + count * (HASH_BYTES + 8) + position * 8);
+    }
+
+    // OFFSETAT(POSITION) as an index into the mapped pack
+    private int entryAt(int position) {
+        long offset = offsetAt(position);
+        if (offset < PACK_HEADER || offset > pack.limit() - ENTRY_HEADER) {
+            throw error("Corrupt pack %s", packFile.getName());
+        }
+        return (int) offset;
+    }
+
+    ObjectId idAt(int position) {
+        return ObjectId.read(idx, HASHES_OFFSET + position * HASH_BYTES);
+    }
+
+    String hashAt(int position) {
+        byte[] raw = new byte[HASH_BYTES];
+        idx.get(HASHES_OFFSET + position * HASH_BYTES, raw);
+        return toHex(raw);
+    }
+
+    // the type of the object at POSITION, without the DELTA bit
+    private int typeAt(int position) {
+        return pack.get(entryAt(position)) & ~DELTA;
+    }
+
+    boolean isDelta(int type, String hash) {
+        int position = find(type, hash);
+        return position >= 0 && (pack.get(entryAt(position)) & DELTA) != 0;
+    }
+
+    // a read-only view of the entry's data inside the mapped pack, or null
+    ByteBuffer slice(int type, String hash) {
+        int position = find(type, hash);
+        if (position < 0) {
+            return null;
+        }
+        int offset = entryAt(position);
+        int length = pack.getInt(offset + 1);
+        return pack.slice(offset + ENTRY_HEADER, length);
+    }
+
+    // returns the raw contents of the object, or null if it is not in this pack
+    byte[] read(int type, String hash) {
+        ByteBuffer data = slice(type, hash);
+        if (data == null) {
+            return null;
+        } else if (!isDelta(type, hash)) {
+            return ObjectFormat.decode(data);
+        }
+        byte[] baseHash = new byte[HASH_BYTES];
+        data.get(0, baseHash);
+        byte[] base = base(toHex(baseHash));
+        return Delta.apply(base, ObjectFormat.decode(data.position(HASH_BYTES).slice()));
+    }
+
+    // the raw contents of a delta base, from the cache when possible; checkout
+    // workers share the cache, so it is only touched under the pack's lock
+    private synchronized byte[] base(String hash) {
+        byte[] data = bases.get(hash);
+        if (data != null) {
+            return data;
+        }
+        data = read(ObjectStore.BLOB, hash);
+        if (data == null) {
+            throw error("Missing delta base %s", hash);
+        }
+        bases.put(hash, data);
+        cachedBytes += data.length;
+        Iterator<byte[]> oldest = bases.values().iterator();
+        while (cachedBytes > BASE_CACHE_BYTES && bases.size() > 1) {
+            cachedBytes -= oldest.next().length;
+            oldest.remove();
+        }
+        return data;
+    }
+
+    // ids of all objects of the given type stored in this pack, in order
+    List<ObjectId> ids(int type) {
+        List<ObjectId> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (typeAt(i) == type) {
+                result.add(idAt(i));
+            }
+        }
+        return result;
+    }
+
+    // all hashes of the given type stored in this pack
+    List<String> hashes(int type) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (typeAt(i) == type) {
+                result.add(hashAt(i));
+            }
+        }
+        return result;
+    }
+
+    /* Hashes of the objects of TYPE from LOW to HIGH inclusive, in order, at
+     * most LIMIT of them. The first is found by binary search, in the buckets
+     * of the first bytes of LOW and HIGH only. */
+    List<String> hashes(int type, ObjectId low, ObjectId high, int limit) {
+        int lo = low.firstByte() == 0 ? 0 : idx.getInt(FANOUT_OFFSET + (low.firstByte() - 1) * 4);
+        int end = idx.getInt(FANOUT_OFFSET + high.firstByte() * 4);
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = lo; i < end && result.size() < limit && compareAt(i, high) <= 0; i++) {
+            if (typeAt(i) == type) {
+                result.add(hashAt(i));
+            }
+        }
+        return result;
+    }
+
+    static byte[] toBytes(String hex) {
+        return ObjectId.fromHex(hex).toBytes();
+    }
+}
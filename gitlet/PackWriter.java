@@ -0,0 +1,288 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Appends objects to a new pack and writes its index once all objects are in.
+ *  The pack is written under a temporary name and only renamed to
+ *  pack-<hash>.pack / .idx by finish(), so readers never see a half-written pack.
+ *
+ *  Blobs given to appendBlob are tried as deltas against the last WINDOW blobs
+ *  written, so callers should feed similar blobs (versions of the same file)
+ *  next to each other. A delta is kept only if it is under half the size of
+ *  the blob, and chains are cut at MAX_DEPTH so reads stay cheap.
+ *
+ *  Objects are told apart by type and hash, as a chunk and a blob may share an
+ *  id. Callers give each object the time it was first stored (see PackFile).
+ *  An entry that would take the pack past PackFile.MAX_SIZE goes to a new
+ *  pack instead, so one writer may produce several packs. */
+public class PackWriter {
+
+    private final File dir;
+    // every object appended so far, by type
+    private final Map<Integer, Set<String>> appended = new HashMap<>();
+    // the packs already finished because the next entry did not fit
+    private final List<PackFile> finished = new ArrayList<>();
+    private File tempPack;
+    private DataOutputStream out;
+    private List<IndexEntry> entries;
+    private long position;
+    private int size;
+
+    static final int WINDOW = 10;
+    static final int MAX_DEPTH = 10;
+
+    // a recently written blob that later blobs may be stored as a delta of
+    private static class Candidate {
+        final String hash;
+        final byte[] data;
+        final int depth;
+
+        Candidate(String hash, byte[] data, int depth) {
+            this.hash = hash;
+            this.data = data;
+            this.depth = depth;
+        }
+    }
+
+    // where an object starts in the pack being written, and when it was first stored
+    private static class IndexEntry {
+        final String hash;
+        final int type;
+        final long offset;
+        final long time;
+
+        IndexEntry(String hash, int type, long offset, long time) {
+            this.hash = hash;
+            this.type = type;
+            this.offset = offset;
+            this.time = time;
+        }
+    }
+
+    private final Deque<Candidate> window = new ArrayDeque<>();
+
+    PackWriter(File dir) {
+        this.dir = dir;
+        startPack();
+    }
+
+    private void startPack() {
+        tempPack = join(dir, "tmp-" + System.nanoTime() + ".pack");
+        entries = new ArrayList<>();
+        window.clear();
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempPack.toPath())));
+            out.writeInt(PackFile.PACK_MAGIC);
+            out.writeInt(PackFile.VERSION);
+        } catch (IOException e) {
+            throw error("Cannot create pack in %s", dir.getPath());
+        }
+        position = PackFile.PACK_HEADER;
+    }
+
+    boolean contains(int type, String hash) {
+        return appended.getOrDefault(type, Set.of()).contains(hash);
+    }
+
+    // objects appended, over all packs
+    int size() {
+        return size;
+    }
+
+    // true if an entry of LENGTH bytes of data still fits in the current pack
+    private boolean fits(long length) {
+        return position + PackFile.ENTRY_HEADER + length <= PackFile.MAX_SIZE;
+    }
+
+    /* Writes the header of entry HASH, moving on to a new pack first if the
+     * entry does not fit in this one. Returns false, writing nothing, if the
+     * object was appended before. */
+    private boolean begin(String hash, int type, long length, long time) throws IOException {
+        int plainType = type & ~PackFile.DELTA;
+        if (contains(plainType, hash)) {
+            return false;
+        }
+        if (length > PackFile.MAX_SIZE - PackFile.PACK_HEADER - PackFile.ENTRY_HEADER) {
+            throw error("Object %s is too large to pack", hash);
+        }
+        if (!fits(length)) {
+            finished.add(finishPack());
+            startPack();
+        }
+        out.writeByte(type);
+        out.writeInt((int) length);
+        appended.computeIfAbsent(plainType, t -> new HashSet<>()).add(hash);
+        entries.add(new IndexEntry(hash, plainType, position, time));
+        position += PackFile.ENTRY_HEADER + length;
+        size += 1;
+        return true;
+    }
+
+    void append(String hash, int type, byte[] data, long time) {
+        try {
+            if (begin(hash, type, data.length, time)) {
+                out.write(data);
+            }
+        } catch (IOException e) {
+            throw error("Cannot write pack entry %s", hash);
+        }
+    }
+
+    // appends an entry whose data is in DATA, e.g. one copied from another pack
+    void append(String hash, int type, ByteBuffer data, long time) {
+        try {
+            if (begin(hash, type, data.remaining(), time)) {
+                Channels.newChannel(out).write(data);
+            }
+        } catch (IOException e) {
+            throw error("Cannot write pack entry %s", hash);
+        }
+    }
+
+    // appends blob HASH with contents DATA, as a delta of a recent blob if that is smaller
+    void appendBlob(String hash, byte[] data, long time) {
+        if (contains(ObjectStore.BLOB, hash)) {
+            return;
+        }
+        Candidate base = null;
+        byte[] delta = null;
+        for (Candidate candidate : window) {
+            if (candidate.depth >= MAX_DEPTH) {
+                continue;
+            }
+            int limit = delta == null ? data.length / 2 : delta.length;
+            byte[] attempt = Delta.create(candidate.data, data, limit);
+            if (attempt != null) {
+                base = candidate;
+                delta = attempt;
+            }
+        }
+        byte[] encoded = delta == null ? null : ObjectFormat.encode(ObjectStore.BLOB, delta);
+        int depth = 0;
+        // the base must be in the same pack, so a delta that does not fit is not used
+        if (delta == null || !fits(PackFile.HASH_BYTES + encoded.length)) {
+            append(hash, ObjectStore.BLOB, ObjectFormat.encode(ObjectStore.BLOB, data), time);
+        } else {
+            byte[] entry = new byte[PackFile.HASH_BYTES + encoded.length];
+            System.arraycopy(PackFile.toBytes(base.hash), 0, entry, 0, PackFile.HASH_BYTES);
+            System.arraycopy(encoded, 0, entry, PackFile.HASH_BYTES, encoded.length);
+            append(hash, ObjectStore.BLOB | PackFile.DELTA, entry, time);
+            depth = base.depth + 1;
+        }
+        window.addFirst(new Candidate(hash, data, depth));
+        if (window.size() > WINDOW) {
+            window.removeLast();
+        }
+    }
+
+    // appends the contents of FILE, streaming it rather than reading it into memory
+    void append(String hash, int type, File file) {
+        try {
+            if (begin(hash, type, file.length(), file.lastModified())) {
+                Files.copy(file.toPath(), out);
+            }
+        } catch (IOException e) {
+            throw error("Cannot write pack entry %s", hash);
+        }
+    }
+
+    // writes the last index and moves the last pack to its final name; returns all new packs
+    List<PackFile> finish() {
+        if (entries.isEmpty()) {
+            abortPack();
+        } else {
+            finished.add(finishPack());
+        }
+        return finished;
+    }
+
+    private PackFile finishPack() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw error("Cannot write pack in %s", dir.getPath());
+        }
+        entries.sort(Comparator.comparing((IndexEntry entry) -> entry.hash)
+            .thenComparingInt(entry -> entry.type));
+        StringBuilder names = new StringBuilder();
+        for (IndexEntry entry : entries) {
+            names.append(entry.hash).append(entry.type);
+        }
+        String name = "pack-" + sha1(names.toString());
+        File packFile = join(dir, name + ".pack");
+        File idxFile = join(dir, name + ".idx");
+        writeIndex(idxFile);
+        if (packFile.exists()) {
+            // identical pack is already there
+            tempPack.delete();
+        } else if (!tempPack.renameTo(packFile)) {
+            throw error("Cannot rename pack %s", packFile.getName());
+        }
+        return new PackFile(packFile, idxFile);
+    }
+
+    // drops the pack being written; packs already finished are complete and stay
+    void abort() {
+        abortPack();
+    }
+
+    private void abortPack() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // nothing left to clean up but the file itself
+        }
+        tempPack.delete();
+    }
+
+    private void writeIndex(File idxFile) {
+        int[] fanout = new int[256];
+        for (IndexEntry entry : entries) {
+            fanout[Integer.parseInt(entry.hash.substring(0, 2), 16)] += 1;
+        }
+        for (int i = 1; i < 256; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+        File tempIdx = join(dir, tempPack.getName() + ".idx");
+        try (DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tempIdx.toPath())))) {
+            idx.writeInt(PackFile.IDX_MAGIC);
+            idx.writeInt(PackFile.IDX_VERSION);
+            for (int count : fanout) {
+                idx.writeInt(count);
+            }
+            for (IndexEntry entry : entries) {
+                idx.write(PackFile.toBytes(entry.hash));
+            }
+            for (IndexEntry entry : entries) {
+                idx.writeLong(entry.offset);
+            }
+            for (IndexEntry entry : entries) {
+                idx.writeLong(entry.time);
+            }
+        } catch (IOException e) {
+            throw error("Cannot write pack index %s", idxFile.getName());
+        }
+        if (!tempIdx.renameTo(idxFile)) {
+            throw error("Cannot rename pack index %s", idxFile.getName());
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Precomputed reachability for selected commits, written by gc for the newest
+ *  branch tips. For each such tip the file BITMAPS holds two EwahBitmaps:
+ *
+ *  - its commits: every commit it reaches, by commit graph index (indices
+ *    never change, since the graph is only appended to), and
+ *  - its objects: every tree, blob and chunk it reaches, by position in the
+ *    file's own object table.
+ *
+ *  Layout, after the header ("GBMP", version):
+ *
+ *      entry count (4) | entries | object count (4) | objects
+ *      entry  = tip index (4) | tip id (20) | commit bitmap | object bitmap
+ *      object = type (1) | id (20)
+ *
+ *  A query about any commit walks the commit graph down from it only until
+ *  it meets a commit with a bitmap, and ORs that bitmap in; merge's ancestor
+ *  checks, gc's marking and "log A..B" all go through here. Entries whose tip
+ *  no longer has the recorded graph index are ignored, and a migration that
+ *  renames objects deletes the file. */
+public class ReachabilityBitmaps {
+
+    static final File BITMAPS = join(Repository.GITLET_DIR, "bitmaps");
+
+    static final int MAGIC = 0x47424d50; // "GBMP"
+    static final int VERSION = 1;
+    // branch tips given bitmaps, newest first
+    static final int MAX_TIPS = 32;
+
+    // the reachability of one tip
+    static class Entry {
+        final int tip;
+        final EwahBitmap commits;
+        final EwahBitmap objects;
+
+        Entry(int tip, EwahBitmap commits, EwahBitmap objects) {
+            this.tip = tip;
+            this.commits = commits;
+            this.objects = objects;
+        }
+    }
+
+    private static String loadedStamp;
+    private static Map<Integer, Entry> entries = new HashMap<>();
+    private static ByteBuffer objectTable;
+
+    @SuppressWarnings("try")
+    private static synchronized void load() {
+        String stamp = BITMAPS.lastModified() + ":" + BITMAPS.length();
+        if (stamp.equals(loadedStamp)) {
+            return;
+        }
+        loadedStamp = stamp;
+        entries = new HashMap<>();
+        objectTable = null;
+        if (!BITMAPS.exists()) {
+            return;
+        }
+        try (Trace.Span span = Trace.span("bitmaps load")) {
+            ByteBuffer data = ByteBuffer.wrap(readContents(BITMAPS));
+            if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+                throw error("Corrupt reachability bitmaps.");
+            }
+            int count = data.getInt();
+            for (int i = 0; i < count; i++) {
+                int tip = data.getInt();
+                ObjectId id = ObjectId.read(data);
+                Entry entry = new Entry(tip, EwahBitmap.read(data), EwahBitmap.read(data));
+                if (CommitGraph.find(id.toHex()) == tip) {
+                    entries.put(tip, entry);
+                }
+            }
+            objectTable = data.slice();
+        }
+    }
+
+    // the bitmaps of the commit at graph index COMMIT, or null if it has none
+    static synchronized Entry entry(int commit) {
+        load();
+        return entries.get(commit);
+    }
+
+    // the type and id of the object at POSITION of the object table
+    static synchronized int objectType(int position) {
+        return objectTable.get(4 + position * (1 + PackFile.HASH_BYTES));
+    }
+
+    static synchronized ObjectId objectId(int position) {
+        ByteBuffer at = objectTable.duplicate();
+        at.position(4 + position * (1 + PackFile.HASH_BYTES) + 1);
+        return ObjectId.read(at);
+    }
+
+    // graph indices of every commit the commit at graph index TIP reaches, itself included
+    static EwahBitmap commits(int tip) {
+        return EwahBitmap.fromWords(reach(tip));
+    }
+
+    // commits(TIP) as a plain bitmap, bit i being bit (i % 64) of word i / 64
+    @SuppressWarnings("try")
+    private static long[] reach(int tip) {
+        try (Trace.Span span = Trace.span("bitmap reach")) {
+            long[] words = new long[(CommitGraph.size() + 63) >>> 6];
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(tip);
+            while (!stack.isEmpty()) {
+                int commit = stack.pop();
+                if ((words[commit >>> 6] & (1L << commit)) != 0) {
+                    continue;
+                }
+                Entry entry = entry(commit);
+                if (entry != null) {
+                    entry.commits.forEach(i -> words[i >>> 6] |= 1L << i);
+                    continue;
+                }
+                words[commit >>> 6] |= 1L << commit;
+                if (CommitGraph.parent(commit) != CommitGraph.NONE) {
+                    stack.push(CommitGraph.parent(commit));
+                }
+                if (CommitGraph.parent2(commit) != CommitGraph.NONE) {
+                    stack.push(CommitGraph.parent2(commit));
+                }
+            }
+            return words;
+        }
+    }
+
+    // graph indices of the newest MAX_TIPS of TIPS
+    private static List<Integer> selectTips(Collection<ObjectId> tips) {
+        List<Integer> indices = new ArrayList<>();
+        for (ObjectId tip : tips) {
+            if (!indices.contains(CommitGraph.indexOf(tip))) {
+                indices.add(CommitGraph.indexOf(tip));
+            }
+        }
+        indices.sort(Comparator.comparingLong(CommitGraph::time).reversed());
+        return new ArrayList<>(indices.subList(0, Math.min(MAX_TIPS, indices.size())));
+    }
+
+    // true if the file holds bitmaps for exactly the tips write(TIPS) would select
+    static synchronized boolean covers(Collection<ObjectId> tips) {
+        load();
+        return entries.keySet().equals(new HashSet<>(selectTips(tips)));
+    }
+
+    /* Replaces the file with bitmaps for the newest MAX_TIPS of the commits
+     * TIPS. Tips are done oldest generation first, and each starts from the
+     * objects of the largest tip done so far that it reaches, so only the
+     * trees of commits that tip lacks are read. */
+    @SuppressWarnings("try")
+    static void write(Collection<ObjectId> tips) {
+        List<Integer> indices = selectTips(tips);
+        indices.sort(Comparator.comparingInt(CommitGraph::generation));
+
+        ObjectTable table = new ObjectTable();
+        List<Entry> done = new ArrayList<>();
+        // how many objects each entry of DONE reaches
+        List<Integer> objectCounts = new ArrayList<>();
+        try (Trace.Span span = Trace.span("bitmaps write")) {
+            for (int tip : indices) {
+                long[] reached = reach(tip);
+                EwahBitmap commits = EwahBitmap.fromWords(reached);
+                Entry base = null;
+                int baseCount = -1;
+                for (int i = 0; i < done.size(); i++) {
+                    int other = done.get(i).tip;
+                    boolean reaches = (reached[other >>> 6] & (1L << other)) != 0;
+                    if (reaches && objectCounts.get(i) > baseCount) {
+                        base = done.get(i);
+                        baseCount = objectCounts.get(i);
+                    }
+                }
+                table.begin(base == null ? EwahBitmap.empty() : base.objects);
+                EwahBitmap todo = base == null ? commits : commits.andNot(base.commits);
+                todo.forEach(commit ->
+                    table.addTree(ObjectStore.readCommit(CommitGraph.id(commit)).tree));
+                Entry entry = new Entry(tip, commits, table.reached());
+                done.add(entry);
+                objectCounts.add(entry.objects.cardinality());
+            }
+        }
+
+        int size = 12 + 4 + table.size() * (1 + PackFile.HASH_BYTES);
+        for (Entry entry : done) {
+            size += 4 + PackFile.HASH_BYTES + entry.commits.serializedSize()
+                + entry.objects.serializedSize();
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(done.size());
+        for (Entry entry : done) {
+            out.putInt(entry.tip).put(CommitGraph.id(entry.tip).toBytes());
+            entry.commits.write(out);
+            entry.objects.write(out);
+        }
+        table.write(out);
+        writeContents(BITMAPS, out.flip());
+        Trace.count("bitmaps written", done.size());
+    }
+
+    // deletes the bitmaps, e.g. once objects have been renamed
+    static void clear() {
+        BITMAPS.delete();
+    }
+
+    // the objects met while writing, numbered in the order they are first met
+    private static class ObjectTable {
+        private final Map<Integer, ObjectIdIntMap> positions = new HashMap<>();
+        private final List<Integer> types = new ArrayList<>();
+        private final List<ObjectId> ids = new ArrayList<>();
+        // for each position, the positions of the chunks of a chunked blob
+        private final List<int[]> chunks = new ArrayList<>();
+        // the objects reached by the tip being written
+        private long[] bits;
+
+        int size() {
+            return ids.size();
+        }
+
+        private int position(int type, ObjectId id) {
+            ObjectIdIntMap map = positions.computeIfAbsent(type, t -> new ObjectIdIntMap());
+            int position = map.get(id);
+            if (position == ObjectIdIntMap.MISSING) {
+                position = ids.size();
+                map.put(id, position);
+                types.add(type);
+                ids.add(id);
+                chunks.add(null);
+                if (type == ObjectStore.BLOB) {
+                    List<ObjectId> chunkIds = ObjectStore.chunkIds(id.toHex());
+                    int[] chunkPositions = new int[chunkIds.size()];
+                    for (int i = 0; i < chunkPositions.length; i++) {
+                        chunkPositions[i] = position(ObjectStore.CHUNK, chunkIds.get(i));
+                    }
+                    chunks.set(position, chunkPositions);
+                }
+            }
+            return position;
+        }
+
+        // starts the objects of the next tip from those in BASE
+        void begin(EwahBitmap base) {
+            bits = new long[(ids.size() + 63) >>> 6];
+            base.forEach(this::set);
+        }
+
+        EwahBitmap reached() {
+            return EwahBitmap.fromWords(bits);
+        }
+
+        private void set(int position) {
+            if (position >>> 6 >= bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(bits.length * 2, (position >>> 6) + 1));
+            }
+            bits[position >>> 6] |= 1L << position;
+        }
+
+        private boolean isSet(int position) {
+            return position >>> 6 < bits.length && (bits[position >>> 6] & (1L << position)) != 0;
+        }
+
+        // adds the tree ROOT and everything under it not reached yet
+        void addTree(ObjectId root) {
+            Deque<ObjectId> trees = new ArrayDeque<>();
+            trees.push(root);
+            while (!trees.isEmpty()) {
+                ObjectId tree = trees.pop();
+                int position = position(ObjectStore.TREE, tree);
+                if (isSet(position)) {
+                    continue;
+                }
+                set(position);
+                for (Tree.Entry entry : Tree.children(tree)) {
+                    if (entry.isTree()) {
+                        trees.push(entry.id);
+                    } else {
+                        int blob = position(ObjectStore.BLOB, entry.id);
+                        set(blob);
+                        for (int chunk : chunks.get(blob)) {
+                            set(chunk);
+                        }
+                    }
+                }
+            }
+        }
+
+        void write(ByteBuffer out) {
+            out.putInt(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                out.put((byte) (int) types.get(i)).put(ids.get(i).toBytes());
+            }
+        }
+    }
+}
@@ -1,15 +1,25 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.Collections;
 import java.util.ArrayList;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.TreeMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static gitlet.Utils.*;
 
@@ -18,6 +28,7 @@ public class Repository {
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     public static final File BLOBS = join(GITLET_DIR, "blobs");
     public static final File COMMITS = join(GITLET_DIR, "commits");
+    public static final File TREES = join(GITLET_DIR, "trees");
     public static final File ADDITION = join(GITLET_DIR, "additionStage");
     public static final File REMOVAL = join(GITLET_DIR, "removalStage");
     // map branch name -> commit hash
@@ -27,19 +38,21 @@ public class Repository {
 
     public static void init() {
         if (GITLET_DIR.exists()) {
-            System.out.println("A Gitlet version-control system "
+            throw error("A Gitlet version-control system "
                 + "already exists in  the current directory.");
-            System.exit(0);
         }
         // create required directories
         GITLET_DIR.mkdir();
         BLOBS.mkdir();
         COMMITS.mkdir();
+        TREES.mkdir();
         REMOVAL.mkdir();
         ADDITION.mkdir();
+        MessageIndex.DIR.mkdir();
+        ContentIds.enable();
 
-        Commit initialCommit = new Commit("initial commit", null, null);
-        initialCommit.create(COMMITS);
+        Commit initialCommit = new Commit("initial commit", null);
+        initialCommit.create();
 
         //set HEAD
         createFile(HEAD);
@@ -47,60 +60,132 @@ public class Repository {
 
         Repository.createFile(BRANCHES);
         Branches branches = new Branches(initialCommit.hash);
-        Utils.writeObject(BRANCHES, branches);
+        writeBranches(branches);
     }
 
-    public static void add(String fileName) {
-        // if current file does not exist, exit
-        File currentFile = join(CWD, fileName);
-        if (!currentFile.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+    /* Stages every file named by PATHS, each of which is a file name, the
+     * working directory itself (e.g. "."), or a glob over the file names in it.
+     * Blobs are hashed and stored in parallel; the stage is then updated in one
+     * pass against a single read of HEAD. Nothing is staged if any path is bad. */
+    @SuppressWarnings("try")
+    public static void add(List<String> paths) {
+        List<String> fileNames = expandPaths(paths);
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (String fileName : fileNames) {
+            tasks.add(() -> storeBlob(fileName));
         }
-        // write content to new file in addition stage
-        File addFile = join(ADDITION, fileName);
-        if (!addFile.exists()) {
-            createFile(addFile);
+        List<String> hashes;
+        try (Trace.Span span = Trace.span("hash files")) {
+            hashes = Workers.run(tasks);
+        }
+
+        Commit currentCommit = currentCommit();
+        for (int i = 0; i < fileNames.size(); i++) {
+            String fileName = fileNames.get(i);
+            String fileHash = hashes.get(i);
+            File addFile = join(ADDITION, fileName);
+            /*
+            If the current working version of
+            the file is identical to the version in the current commit,
+            do not stage it to be added,
+            and remove it from the staging area if it is already there
+            */
+            if (fileHash.equals(currentCommit.blob(fileName))) {
+                addFile.delete();
+            } else {
+                Utils.writeContents(addFile, fileHash);
+            }
+            //      remove file from delete area
+            unstage(fileName, "REMOVAL");
+        }
+        Index.save();
+    }
+
+    // the file names in CWD named by PATHS, in order and without duplicates
+    private static List<String> expandPaths(List<String> paths) {
+        Set<String> fileNames = new LinkedHashSet<>();
+        List<String> cwdFiles = plainFilenamesIn(CWD);
+        for (String path : paths) {
+            File file = join(CWD, path);
+            if (isGlob(path)) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                boolean matched = false;
+                for (String fileName : cwdFiles) {
+                    if (matcher.matches(Paths.get(fileName))) {
+                        fileNames.add(fileName);
+                        matched = true;
+                    }
+                }
+                if (!matched) {
+                    throw error("File does not exist.");
+                }
+            } else if (file.isDirectory()) {
+                // only the top level of the working directory is tracked
+                if (!file.toPath().normalize().equals(CWD.toPath().normalize())) {
+                    throw error("File does not exist.");
+                }
+                fileNames.addAll(cwdFiles);
+            } else if (!file.exists()) {
+                throw error("File does not exist.");
+            } else {
+                fileNames.add(path);
+            }
         }
-        String fileContent = readContentsAsString(currentFile);
-        Utils.writeContents(addFile, fileContent);
-        /*
-        If the current working version of
-        the file is identical to the version in the current commit,
-        do not stage it to be added,
-        and remove it from the staging area if it is already there
-        In other words, since we
-        already added it (potentially overwritten), remove it
-        */
-        if (Repository.hasHash(Utils.sha1(fileContent + fileName))) {
-            addFile.delete();
+        return new ArrayList<>(fileNames);
+    }
+
+    private static boolean isGlob(String path) {
+        return path.indexOf('*') >= 0 || path.indexOf('?') >= 0
+            || path.indexOf('[') >= 0 || path.indexOf('{') >= 0;
+    }
+
+    // stores the blob of CWD/fileName and returns its hash, skipping files
+    // whose stat data is unchanged since they were last hashed
+    private static String storeBlob(String fileName) {
+        File file = join(CWD, fileName);
+        String hash = Index.cached(file, fileName);
+        if (hash == null || !ObjectStore.hasBlob(hash)) {
+            hash = ObjectStore.writeBlob(file);
+            Index.record(file, fileName, hash);
         }
-        //      remove file from delete area
-        unstage(fileName, "REMOVAL");
+        return hash;
+    }
+
+    // BRANCHES is reread only when its size or modification time changes
+    private static final ObjectCache<String, Branches> BRANCHES_CACHE =
+        new ObjectCache<>("branches", 1);
+
+    private static String stamp(File file) {
+        return file.lastModified() + ":" + file.length();
+    }
+
+    static Branches readBranches() {
+        String stamp = stamp(BRANCHES);
+        Branches branches = BRANCHES_CACHE.get(stamp);
+        if (branches == null) {
+            branches = Codec.decodeBranches(readContents(BRANCHES));
+            BRANCHES_CACHE.put(stamp, branches);
+        }
+        return branches;
+    }
+
+    static void writeBranches(Branches branches) {
+        writeContents(BRANCHES, Codec.encodeBranches(branches));
+        BRANCHES_CACHE.clear();
+        BRANCHES_CACHE.put(stamp(BRANCHES), branches);
     }
 
     // returns HEAD commit
     static Commit currentCommit() {
         String currentBranch = readContentsAsString(HEAD);
-        String hash = readObject(BRANCHES, Branches.class).branches.get(currentBranch);
-        return readObject(join(COMMITS, hash), Commit.class);
+        String hash = readBranches().tip(currentBranch);
+        return ObjectStore.readCommit(hash);
     }
 
-    // returns true if current commit has hash
-    static boolean hasHash(String hash) {
-        Commit currentCommit = currentCommit();
-        if (currentCommit.fileHashes.contains(hash)) {
-            return true;
-        }
-        return false;
-    }
     // returns true if current commit has fileName
     static boolean hasName(String fileName) {
         Commit currentCommit = currentCommit();
-        if (currentCommit.fileReferences.containsKey(fileName)) {
-            return true;
-        }
-        return false;
+        return currentCommit.tracks(fileName);
     }
 
     public static boolean unstage(String fileName, String from) {
@@ -122,17 +207,17 @@ public class Repository {
 
     static void commit(String message) {
         Commit currentCommit = currentCommit();
-        Commit newCommit = new Commit(message, currentCommit.hash, COMMITS);
+        Commit newCommit = new Commit(message, currentCommit.hash);
         // update files from adding stage
         // get names of all files in the adding stage
-        newCommit.modify(ADDITION, REMOVAL, BLOBS);
-        newCommit.create(COMMITS);
+        newCommit.modify(ADDITION, REMOVAL);
+        newCommit.create();
         // change branch
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = readBranches();
         String currentBranch = readContentsAsString(HEAD);
         branches.branches.remove(currentBranch);
-        branches.branches.put(currentBranch, newCommit.hash);
-        Utils.writeObject(BRANCHES, branches);
+        branches.point(currentBranch, newCommit.hash);
+        writeBranches(branches);
     }
 
     static void rm(String fileName) {
@@ -145,7 +230,6 @@ public class Repository {
                 createFile(removalFile);
             }
             if (file.exists()) {
-                Utils.writeContents(removalFile, readContentsAsString(file));
                 file.delete();
             }
         } else if (!unstaged) {
@@ -153,114 +237,134 @@ public class Repository {
         }
     }
 
-    static void log() {
-        Commit currentCommit = currentCommit();
-        while (currentCommit.parentHash != null) {
-            currentCommit.log();
-            currentCommit = readObject(join(COMMITS, currentCommit.parentHash), Commit.class);
+    static void log(LogFilter filter) {
+        String currentBranch = readContentsAsString(HEAD);
+        String hash = readBranches().tip(currentBranch);
+        PrintStream out = logStream();
+        // follow first parents through the commit graph, loading only what we print
+        for (int i = CommitGraph.indexOf(hash); i != CommitGraph.NONE && !filter.done();
+             i = CommitGraph.parent(i)) {
+            if (filter.accept(CommitGraph.time(i))) {
+                ObjectStore.readCommit(CommitGraph.hash(i)).log(out);
+            }
+        }
+        out.flush();
+    }
+
+    /* Prints, for "log A..B", the commits B reaches and A does not, newest
+     * first. A and B are branch names or commit ids; either one left out is
+     * the current branch. */
+    static void logRange(String range, LogFilter filter) {
+        int dots = range.indexOf("..");
+        int from = CommitGraph.indexOf(commitNamed(range.substring(0, dots)));
+        int to = CommitGraph.indexOf(commitNamed(range.substring(dots + 2)));
+        EwahBitmap commits = ReachabilityBitmaps.commits(to)
+            .andNot(ReachabilityBitmaps.commits(from));
+        List<Integer> order = new ArrayList<>();
+        for (int i : commits.positions()) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong(CommitGraph::time)
+            .thenComparingInt(i -> i).reversed());
+        PrintStream out = logStream();
+        for (int i : order) {
+            if (filter.done()) {
+                break;
+            }
+            if (filter.accept(CommitGraph.time(i))) {
+                ObjectStore.readCommit(CommitGraph.hash(i)).log(out);
+            }
         }
-        currentCommit.log();
+        out.flush();
     }
 
-    static void globalLog() {
-        List<String> commitNames = plainFilenamesIn(COMMITS);
-        for (String hash: commitNames) {
-            Commit commit = readObject(join(COMMITS, hash), Commit.class);
-            commit.log();
+    // the commit NAME names: a branch, a commit id, or HEAD's branch if empty
+    private static String commitNamed(String name) {
+        if (name.isEmpty()) {
+            name = readContentsAsString(HEAD);
         }
+        String tip = readBranches().tip(name);
+        return tip != null ? tip : ObjectResolver.resolveCommit(name);
     }
 
-    static void find(String message) {
-        List<String> commitNames = plainFilenamesIn(COMMITS);
-        boolean found = false;
-        for (String hash: commitNames) {
-            Commit commit = readObject(join(COMMITS, hash), Commit.class);
-            if (commit.message.equals(message)) {
-                System.out.println(commit.hash);
-                found = true;
+    static void globalLog(LogFilter filter) {
+        PrintStream out = logStream();
+        for (String hash : ObjectStore.commitHashes()) {
+            if (filter.done()) {
+                break;
+            }
+            if (filter.accept(CommitGraph.time(CommitGraph.indexOf(hash)))) {
+                ObjectStore.readCommit(hash).log(out);
             }
         }
-        if (!found) {
+        out.flush();
+    }
+
+    // System.out behind a large buffer, for printing many commits; flush when done
+    private static PrintStream logStream() {
+        return new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false,
+            StandardCharsets.UTF_8);
+    }
+
+    // prints the ids of commits with exactly MESSAGE, or containing all its words if GREP
+    static void find(String message, boolean grep) {
+        List<String> hashes = grep ? MessageIndex.grep(message) : MessageIndex.exact(message);
+        for (String hash : hashes) {
+            System.out.println(hash);
+        }
+        if (hashes.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
 
     static void currentCheckout(String fileName) {
         String currentBranch = readContentsAsString(HEAD);
-        String hash = readObject(BRANCHES, Branches.class).branches.get(currentBranch);
-        idCheckout(fileName, join(COMMITS, hash));
+        String hash = readBranches().tip(currentBranch);
+        checkoutFile(fileName, hash);
     }
 
     static void idCheckout(String hash, String fileName) {
-        if (hash.length() == 40) {
-            File commitFile = join(COMMITS, hash);
-            if (commitFile.exists()) {
-                idCheckout(fileName, commitFile);
-            } else {
-                System.out.println("No commit with that id exists.");
-            }
-            return;
-        }
-        List<String> commitNames = plainFilenamesIn(COMMITS);
-        for (String commitHash: commitNames) {
-            if (commitHash.startsWith(hash)) {
-                File commitFile = join(COMMITS, commitHash);
-                idCheckout(fileName, commitFile);
-                return;
-            }
-        }
+        checkoutFile(fileName, ObjectResolver.resolveCommit(hash));
     }
 
-    static void idCheckout(String fileName, File serializedCommit) {
-        Commit currentCommit = readObject(serializedCommit, Commit.class);
-        File blob = currentCommit.fileReferences.getOrDefault(fileName, null);
+    static void checkoutFile(String fileName, String commitHash) {
+        Commit currentCommit = ObjectStore.readCommit(commitHash);
+        String blob = currentCommit.blob(fileName);
         if (blob == null) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
         File addFile = join(CWD, fileName);
         if (!addFile.exists()) {
             createFile(addFile);
         }
-        Utils.writeContents(addFile, readContentsAsString(blob));
+        ObjectStore.copyBlob(blob, addFile);
+        Index.record(addFile, fileName, blob);
+        Index.save();
     }
 
     static void branchCheckOut(String branchName) {
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = readBranches();
         if (!branches.branches.containsKey(branchName)) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
         Commit currentCommit = currentCommit();
         String currentBranch = readContentsAsString(HEAD);
         if (currentBranch.equals(branchName)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
-        }
-        File commitFile = join(COMMITS, branches.branches.get(branchName));
-        Commit changeToCommit = Utils.readObject(commitFile, Commit.class);
-        List<String> fileNames = plainFilenamesIn(CWD);
-        for (String fileName : fileNames) {
-            if (changeToCommit.fileReferences.containsKey(fileName)
-                    && !currentCommit.fileReferences.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; "
-                    + "delete it, or add and commit it first.");
-                System.exit(0);
-            }
+            throw error("No need to checkout the current branch.");
         }
+        Commit changeToCommit = ObjectStore.readCommit(branches.tip(branchName));
+        checkoutCommit(currentCommit, changeToCommit);
+        //change HEAD
+        Utils.writeContents(HEAD, branchName);
 
-        // delete tracked files
-        for (String fileName : currentCommit.fileReferences.keySet()) {
-            File file = join(CWD, fileName);
-            file.delete();
-        }
+    }
 
-        // add files from branch
-        for (Map.Entry<String, File> entry : changeToCommit.fileReferences.entrySet()) {
-            File cwdFile = join(CWD, entry.getKey());
-            File blobFile = entry.getValue();
-            Utils.writeContents(cwdFile, readContentsAsString(blobFile));
-        }
+    // replaces the files of currentCommit in CWD with those of changeToCommit and clears the stages
+    static void checkoutCommit(Commit currentCommit, Commit changeToCommit) {
+        // only files whose blob differs between the two trees need touching
+        Map<String, String[]> changes = Tree.diff(currentCommit.tree, changeToCommit.tree);
+        Checkout.checkUntracked(changes);
+        Checkout.apply(changes);
 
         // clear stages
         List<String> additionFiles = plainFilenamesIn(ADDITION);
@@ -274,41 +378,35 @@ public class Repository {
             File file = join(REMOVAL, fileName);
             file.delete();
         }
-        //change HEAD
-        Utils.writeContents(HEAD, branchName);
-
     }
 
 
     static void branch(String branchName) {
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = readBranches();
         if (branches.branches.containsKey(branchName)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         }
         Commit currentCommit = currentCommit();
-        branches.branches.put(branchName, currentCommit.hash);
-        Utils.writeObject(BRANCHES, branches);
+        branches.point(branchName, currentCommit.hash);
+        writeBranches(branches);
     }
 
     static void removeBranch(String branchName) {
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = readBranches();
         if (!branches.branches.containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
         String currentBranch = readContentsAsString(HEAD);
         if (currentBranch.equals(branchName)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
         branches.branches.remove(branchName);
-        Utils.writeObject(BRANCHES, branches);
+        writeBranches(branches);
     }
 
     static void status() {
-        Branches branches = readObject(BRANCHES, Branches.class);
-        Commit currentCommit = currentCommit();
+        Branches branches = readBranches();
+        Map<String, String> tracked = currentCommit().files();
         String currentBranch = readContentsAsString(HEAD);
 
         System.out.println("=== Branches ===");
@@ -342,19 +440,18 @@ public class Repository {
         List<String> cwdFiles = plainFilenamesIn(CWD);
         for (String file : cwdFiles) {
             // not tracked
-            if (currentCommit.fileReferences.get(file) == null) {
+            if (tracked.get(file) == null) {
                 continue;
             }
             File cwdFile = join(CWD, file);
             if (cwdFile.isDirectory()) {
                 continue;
             }
-            String currentHash = sha1(Utils.readContentsAsString(cwdFile) + file);
-            File commitHashBlobFile = currentCommit.fileReferences.get(file);
+            String currentHash = Index.hash(cwdFile, file);
             File stagedFile = join(ADDITION, file);
-            if (!commitHashBlobFile.getName().equals(currentHash)
+            if (!tracked.get(file).equals(currentHash)
                     && (!stagedFile.exists()
-                    || !currentHash.equals(sha1(readContentsAsString(stagedFile) + file)))) {
+                    || !currentHash.equals(readContentsAsString(stagedFile)))) {
                 System.out.println(file + " (modified)");
             }
         }
@@ -362,8 +459,7 @@ public class Repository {
         // Staged for addition, but deleted in the working directory or
         // Not staged for removal, but tracked in the current commit
         // and deleted from the working directory.
-        for (Map.Entry<String, File> entry : currentCommit.fileReferences.entrySet()) {
-            String fileName = entry.getKey();
+        for (String fileName : tracked.keySet()) {
             File cwdFile = join(CWD, fileName);
             File remFile = join(REMOVAL, fileName);
             if (!cwdFile.exists() && !remFile.exists()) {
@@ -379,164 +475,105 @@ public class Repository {
                 continue;
             }
             File addFile = join(ADDITION, fileName);
-            if (!addFile.exists() && currentCommit.fileReferences.get(fileName) == null) {
+            if (!addFile.exists() && tracked.get(fileName) == null) {
                 System.out.println(fileName);
             }
         }
         System.out.println();
-
+        Index.save();
     }
 
-    static void reset(String commitHash) {
-        File commitFile = join(COMMITS, commitHash);
-        if (!commitFile.exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
-        Commit changeToCommit = Utils.readObject(commitFile, Commit.class);
+    static void reset(String id) {
+        String commitHash = ObjectResolver.resolveCommit(id);
+        Commit changeToCommit = ObjectStore.readCommit(commitHash);
         Commit currentCommit = currentCommit();
-        List<String> fileNames = plainFilenamesIn(CWD);
-        for (String fileName : fileNames) {
-            if (changeToCommit.fileReferences.containsKey(fileName)
-                    && !currentCommit.fileReferences.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; delete it, "
-                       + "or add and commit it first.");
-                System.exit(0);
-            }
-        }
-
-        // delete tracked files
-        for (String fileName : currentCommit.fileReferences.keySet()) {
-            File file = join(CWD, fileName);
-            file.delete();
-        }
-
-        // add files from branch
-        for (Map.Entry<String, File> entry : changeToCommit.fileReferences.entrySet()) {
-            File cwdFile = join(CWD, entry.getKey());
-            File blobFile = entry.getValue();
-            Utils.writeContents(cwdFile, readContentsAsString(blobFile));
-        }
-
-        // clear stages
-        List<String> additionFiles = plainFilenamesIn(ADDITION);
-        for (String fileName : additionFiles) {
-            File file = join(ADDITION, fileName);
-            file.delete();
-        }
-
-        List<String> removalFiles = plainFilenamesIn(REMOVAL);
-        for (String fileName : removalFiles) {
-            File file = join(REMOVAL, fileName);
-            file.delete();
-        }
+        checkoutCommit(currentCommit, changeToCommit);
 
         // change BRANCHES
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = readBranches();
         String currentBranch = readContentsAsString(HEAD);
         branches.branches.remove(currentBranch);
-        branches.branches.put(currentBranch, commitHash);
-        Utils.writeObject(BRANCHES, branches);
+        branches.point(currentBranch, commitHash);
+        writeBranches(branches);
     }
 
-    static void mergeCheck(String branchName) {
+    // checks that branchName can be merged; returns true if that is done already by fast-forwarding
+    static boolean mergeCheck(String branchName) {
 
         Commit currentCommit = currentCommit();
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = readBranches();
         String currentBranch = readContentsAsString(HEAD);
-        if (branches.branches.get(branchName) == null) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        if (branches.tip(branchName) == null) {
+            throw error("A branch with that name does not exist.");
         }
-        String otherHash = branches.branches.get(branchName);
-        Commit otherCommit = readObject(join(COMMITS, otherHash), Commit.class);
-        // find split point
-        Commit splitPoint = splitPoint(currentCommit, otherCommit);
-        //       System.out.println("found split point: " +
-        //       splitPoint.hash + " with message " + splitPoint.message);
+        String otherHash = branches.tip(branchName);
+        Commit otherCommit = ObjectStore.readCommit(otherHash);
         // check if addition or removal area are not empty
         if (plainFilenamesIn(ADDITION).size() + plainFilenamesIn(REMOVAL).size() != 0) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         }
         if (branchName.equals(currentBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
 
-        if (splitPoint.hash.equals(otherHash)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+        if (MergeBase.isAncestor(otherHash, currentCommit.hash)) {
+            throw error("Given branch is an ancestor of the current branch.");
         }
-        List<String> fileNames = plainFilenamesIn(CWD);
-        for (String fileName : fileNames) {
-            if (otherCommit.fileReferences.containsKey(fileName)
-                    && !currentCommit.fileReferences.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; "
+        Map<String, String[]> changes = Tree.diff(currentCommit.tree, otherCommit.tree);
+        for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+            if (entry.getValue()[0] == null && join(CWD, entry.getKey()).exists()) {
+                throw error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
-                System.exit(0);
             }
         }
 
 
-        if (splitPoint.hash.equals(currentCommit.hash)) {
+        if (MergeBase.isAncestor(currentCommit.hash, otherHash)) {
             branchCheckOut(branchName);
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            return true;
         }
-
+        return false;
     }
 
     static void merge(String branchName) {
-        mergeCheck(branchName);
+        if (mergeCheck(branchName)) {
+            return;
+        }
         Commit currentCommit = currentCommit();
-        Branches branches = readObject(BRANCHES, Branches.class);
+        Branches branches = readBranches();
         String currentBranch = readContentsAsString(HEAD);
-        String otherHash = branches.branches.get(branchName);
-        Commit otherCommit = readObject(join(COMMITS, otherHash), Commit.class);
+        String otherHash = branches.tip(branchName);
+        Commit otherCommit = ObjectStore.readCommit(otherHash);
         // find split point
         Commit splitPoint = splitPoint(currentCommit, otherCommit);
-        Map<String, File> fileReferences = new TreeMap<>(); // file name -> blob reference
-        Set<String> fileHashes = new HashSet<>(); // file hashes that I have
+        Map<String, String> currentFiles = currentCommit.files();
+        Map<String, String> otherFiles = otherCommit.files();
+        Map<String, String> splitFiles = splitPoint.files();
+        Map<String, String> files = new TreeMap<>(); // file name -> blob hash
         boolean mergeConflict = false;
         boolean changed = false;
-        for (Map.Entry<String, File> entry : currentCommit.fileReferences.entrySet()) {
+        for (Map.Entry<String, String> entry : currentFiles.entrySet()) {
             String fileName = entry.getKey();
-            File blobFile = entry.getValue();
-            String currentFileHash = blobFile.getName();
-            //            System.out.println("doing things with file " + fileName);
-            File fileInOtherCommit = otherCommit.fileReferences.get(fileName);
-            String hashInOtherCommit = null;
-            if (fileInOtherCommit != null) {
-                hashInOtherCommit = fileInOtherCommit.getName();
-            }
-
-            File fileInSplitPoint = splitPoint.fileReferences.get(fileName);
-            String hashInSplitPoint = null;
-            if (fileInSplitPoint != null) {
-                hashInSplitPoint = fileInSplitPoint.getName();
-            }
+            String currentFileHash = entry.getValue();
+            String hashInOtherCommit = otherFiles.get(fileName);
+            String hashInSplitPoint = splitFiles.get(fileName);
 
             // rule 1
             if (currentFileHash.equals(hashInSplitPoint) && hashInOtherCommit != null
                     && !hashInOtherCommit.equals(currentFileHash)) {
-                fileReferences.put(fileName, fileInOtherCommit);
-                fileHashes.add(hashInOtherCommit);
-                //                System.out.println("file " + fileName + " falls in rule 1");
+                files.put(fileName, hashInOtherCommit);
                 changed = true;
             } else if (hashInOtherCommit != null && hashInOtherCommit.equals(hashInSplitPoint)
                     && !hashInOtherCommit.equals(currentFileHash)) {
                 // rule 2
-                fileReferences.put(fileName, blobFile);
-                fileHashes.add(currentFileHash);
+                files.put(fileName, currentFileHash);
             } else if (currentFileHash.equals(hashInOtherCommit)) {
                 // rule 3
-                fileReferences.put(fileName, blobFile);
-                fileHashes.add(currentFileHash);
+                files.put(fileName, currentFileHash);
             } else if (hashInOtherCommit == null && hashInSplitPoint == null) {
             // rule 4
-                fileReferences.put(fileName, blobFile);
-                fileHashes.add(currentFileHash);
+                files.put(fileName, currentFileHash);
             } else if (currentFileHash.equals(hashInSplitPoint) && hashInOtherCommit == null) {
                 // rule 6
                 File file = join(CWD, fileName);
@@ -545,55 +582,33 @@ public class Repository {
             } else {
                 // rule 8
 
-                String newContent = "<<<<<<< HEAD\n" + readContentsAsString(blobFile) + "=======\n";
-                if (hashInOtherCommit != null) {
-                    newContent += readContentsAsString(fileInOtherCommit);
-                }
-                newContent += ">>>>>>>\n";
-                // create blob
-                String newHash = sha1(newContent + fileName);
-                File newBlob = join(BLOBS, newHash);
-                createFile(newBlob);
-                Utils.writeContents(newBlob, newContent);
-                fileReferences.put(fileName, newBlob);
-                fileHashes.add(newHash);
+                String newHash = conflict(currentFileHash, hashInOtherCommit);
+                files.put(fileName, newHash);
                 mergeConflict = true;
                 changed = true;
             }
         }
 
-        mergeSecond(otherCommit, currentCommit, splitPoint, fileReferences,
-                fileHashes, changed, mergeConflict, branchName);
+        mergeSecond(otherCommit, currentCommit, otherFiles, currentFiles, splitFiles, files,
+                changed, mergeConflict, branchName);
     }
 
     static void mergeSecond(Commit otherCommit, Commit currentCommit,
-                            Commit splitPoint, Map<String, File> fileReferences,
-                            Set<String> fileHashes, boolean changed, boolean mergeConflict,
-                             String branchName) {
-        Branches branches = readObject(BRANCHES, Branches.class);
+                            Map<String, String> otherFiles, Map<String, String> currentFiles,
+                            Map<String, String> splitFiles, Map<String, String> files,
+                            boolean changed, boolean mergeConflict, String branchName) {
+        Branches branches = readBranches();
         String currentBranch = readContentsAsString(HEAD);
         // rule 5
-        for (Map.Entry<String, File> entry : otherCommit.fileReferences.entrySet()) {
+        for (Map.Entry<String, String> entry : otherFiles.entrySet()) {
 
             String fileName = entry.getKey();
-            File blobFile = entry.getValue();
-            String hashInOtherCommit = blobFile.getName();
-            //            System.out.println("doing things2 with file " + fileName);
-            File fileInCurrentCommit = currentCommit.fileReferences.get(fileName);
-            String hashInCurrentCommit = null;
-            if (fileInCurrentCommit != null) {
-                hashInCurrentCommit = fileInCurrentCommit.getName();
-            }
-
-            File fileInSplitPoint = splitPoint.fileReferences.get(fileName);
-            String hashInSplitPoint = null;
-            if (fileInSplitPoint != null) {
-                hashInSplitPoint = fileInSplitPoint.getName();
-            }
+            String hashInOtherCommit = entry.getValue();
+            String hashInCurrentCommit = currentFiles.get(fileName);
+            String hashInSplitPoint = splitFiles.get(fileName);
             // rule 5
             if (hashInSplitPoint == null && hashInCurrentCommit == null) {
-                fileReferences.put(fileName, blobFile);
-                fileHashes.add(hashInOtherCommit);
+                files.put(fileName, hashInOtherCommit);
                 changed = true;
             } else if (hashInOtherCommit.equals(hashInSplitPoint) && hashInCurrentCommit == null) {
                 // rule 7
@@ -604,15 +619,8 @@ public class Repository {
 
             } else if (hashInCurrentCommit == null) {
                 // rule 8
-                String newContent = "<<<<<<< HEAD\n=======\n" + readContentsAsString(blobFile);
-                newContent += ">>>>>>>\n";
-                // create blob
-                String newHash = sha1(newContent + fileName);
-                File newBlob = join(BLOBS, newHash);
-                createFile(newBlob);
-                Utils.writeContents(newBlob, newContent);
-                fileReferences.put(fileName, newBlob);
-                fileHashes.add(newHash);
+                String newHash = conflict(null, hashInOtherCommit);
+                files.put(fileName, newHash);
                 mergeConflict = true;
                 changed = true;
             }
@@ -620,71 +628,134 @@ public class Repository {
         }
 
         if (!changed) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         }
         Commit newCommit = new Commit("Merged " + branchName + " into "
                 + currentBranch + ".", currentCommit.hash,
-                otherCommit.hash, fileReferences, fileHashes);
+                otherCommit.hash, files);
         // check if there is nothing to commit ??
 
-        newCommit.create(COMMITS);
-        newCommit.addFiles(CWD, BLOBS);
+        newCommit.create();
+        Checkout.apply(Tree.diff(currentCommit.tree, newCommit.tree));
 
         // change branch
         branches.branches.remove(currentBranch);
-        branches.branches.put(currentBranch, newCommit.hash);
-        Utils.writeObject(BRANCHES, branches);
+        branches.point(currentBranch, newCommit.hash);
+        writeBranches(branches);
 
         if (mergeConflict) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
+    // creates the conflict blob from the two sides (null if deleted)
+    static String conflict(String currentHash, String otherHash) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.writeBytes("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+        if (currentHash != null) {
+            content.writeBytes(ObjectStore.readBlob(currentHash));
+        }
+        content.writeBytes("=======\n".getBytes(StandardCharsets.UTF_8));
+        if (otherHash != null) {
+            content.writeBytes(ObjectStore.readBlob(otherHash));
+        }
+        content.writeBytes(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        // create blob
+        byte[] newContent = content.toByteArray();
+        String newHash = sha1(newContent);
+        ObjectStore.writeBlob(newHash, newContent);
+        return newHash;
+    }
 
+    /* Prints the ids of the merge bases of the commits NAMES names, newest
+     * first: the best one of two commits, ALL best common ancestors of the
+     * first and any of the others, or with OCTOPUS those of a merge of all. */
+    static void mergeBase(List<String> names, boolean all, boolean octopus) {
+        int[] commits = new int[names.size()];
+        for (int i = 0; i < commits.length; i++) {
+            commits[i] = CommitGraph.indexOf(commitNamed(names.get(i)));
+        }
+        List<Integer> bases;
+        if (octopus) {
+            bases = MergeBase.octopusBases(commits);
+        } else {
+            bases = MergeBase.mergeBases(commits[0],
+                Arrays.copyOfRange(commits, 1, commits.length));
+        }
+        bases.sort(MergeBase::compare);
+        if (!all && !octopus && bases.size() > 1) {
+            bases = bases.subList(0, 1);
+        }
+        for (int base : bases) {
+            System.out.println(CommitGraph.hash(base));
+        }
+    }
+
+    @SuppressWarnings("try")
     static Commit splitPoint(Commit a, Commit b) {
-        Set<String> hashes = new HashSet<>();
-        LinkedList<Commit> q = new LinkedList<>();
-        q.addLast(a);
-        hashes.add(a.hash);
-        while (!q.isEmpty()) {
-            Commit next = q.removeFirst();
-            String hash = next.parentHash;
-            for (int i = 0; i < 2; i++) {
-                if (hash == null) {
-                    break;
-                }
-                Commit parentCommit = readObject(join(COMMITS, hash), Commit.class);
-                q.addLast(parentCommit);
-                hashes.add(parentCommit.hash);
-                hash = next.parent2Hash;
-            }
+        int base;
+        try (Trace.Span span = Trace.span("splitPoint")) {
+            base = MergeBase.bestMergeBase(CommitGraph.indexOf(a.hash),
+                CommitGraph.indexOf(b.hash));
         }
-        q.addLast(b);
-        while (!q.isEmpty()) {
-            Commit next = q.removeFirst();
-            if (hashes.contains(next.hash)) {
-                return next;
-            }
-            String hash = next.parentHash;
-            for (int i = 0; i < 2; i++) {
-                if (hash == null) {
-                    break;
-                }
-                Commit parentCommit = readObject(join(COMMITS, hash), Commit.class);
-                q.addLast(parentCommit);
-                hash = next.parent2Hash;
+        if (base == CommitGraph.NONE) {
+            return null;
+        }
+        return ObjectStore.readCommit(CommitGraph.hash(base));
+    }
+
+    /* Rewrites commits and the branch file still stored by Java serialization
+     * in the binary format, giving commits from before trees existed a tree
+     * built from their file list, and stages by blob hash the files staged by
+     * contents before blobs were streamed. A commit is named by the SHA-1 of
+     * its encoding, so History copies the re-encoded commits, and those above
+     * them, under new ids. */
+    static void migrate() {
+        boolean branches = Codec.isLegacy(readContents(BRANCHES));
+        if (branches) {
+            writeBranches(readBranches());
+        }
+        Map<String, String> commits = History.copyCommits(
+            commit -> commit.tree != null ? commit.tree : Tree.build(commit.legacyFiles));
+        History.repoint(commits);
+        Map<Integer, Set<ObjectId>> dropped = new HashMap<>();
+        History.drop(ObjectStore.COMMIT, commits, dropped);
+        if (!commits.isEmpty()) {
+            History.finish(dropped);
+        }
+        for (String fileName : plainFilenamesIn(ADDITION)) {
+            File staged = join(ADDITION, fileName);
+            if (staged.length() != UID_LENGTH
+                    || !ObjectStore.hasBlob(readContentsAsString(staged))) {
+                writeContents(staged, ObjectStore.writeBlob(staged));
             }
         }
-        return null;
+        System.out.println("Migrated " + commits.size() + " commits"
+            + (branches ? " and the branch file." : "."));
+        if (!ContentIds.enabled()) {
+            ContentIds.migrate();
+        }
     }
 
+    /* Deletes the objects no branch or staged file reaches that are older than
+     * GRACE milliseconds, and packs the rest into a single pack file. */
+    static void gc(long grace) {
+        Gc.run(grace);
+    }
 
     // checks that given the correct number of arguments and work in an initialized directory
     static void initialized() {
+        exists();
+        if (!ContentIds.enabled()) {
+            throw error("This repository names blobs by file name and contents; "
+                + "run \"gitlet migrate\" to upgrade it.");
+        }
+    }
+
+    // checks that the working directory holds a repository, in any format
+    static void exists() {
         if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
     }
 
@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The settings a command reads. Each is a gitlet.NAME system property, or
+ *  else the matching GITLET_NAME environment variable, of the process that
+ *  ran the command, or else the line gitlet.NAME=VALUE of the repository's
+ *  CONFIG file (a java.util.Properties file), if there is one. A daemon runs
+ *  each command with the settings its client sent (see Daemon), so a command
+ *  behaves the same with or without one. Tracing is turned on by a flag
+ *  instead; see Trace. */
+public class Settings {
+
+    static final File CONFIG = join(Repository.GITLET_DIR, "config");
+
+    // system property -> environment variable, for every setting
+    private static final Map<String, String> VARIABLES = Map.of(
+        "gitlet.threads", "GITLET_THREADS",
+        "gitlet.compression", "GITLET_COMPRESSION",
+        "gitlet.chunkThreshold", "GITLET_CHUNK_THRESHOLD",
+        "gitlet.verbose", "GITLET_VERBOSE");
+
+    private static volatile Map<String, String> current = own();
+
+    // CONFIG as last read, and its modification time then (0 if missing)
+    private static Properties config;
+    private static long configTime;
+
+    // the settings this process was started with, by property name
+    static Map<String, String> own() {
+        Map<String, String> own = new TreeMap<>();
+        for (Map.Entry<String, String> setting : VARIABLES.entrySet()) {
+            String value = System.getProperty(setting.getKey(),
+                System.getenv(setting.getValue()));
+            if (value != null) {
+                own.put(setting.getKey(), value);
+            }
+        }
+        return own;
+    }
+
+    // makes SETTINGS, by property name, the ones commands read from now on
+    static void use(Map<String, String> settings) {
+        current = settings;
+    }
+
+    // the value of setting PROPERTY, or null if it is not set
+    static String get(String property) {
+        String value = current.get(property);
+        return value != null ? value : config().getProperty(property);
+    }
+
+    // the settings in CONFIG, read again whenever it changes
+    private static synchronized Properties config() {
+        long time = CONFIG.lastModified();
+        if (config == null || time != configTime) {
+            Properties loaded = new Properties();
+            if (time != 0) {
+                try (Reader in = Files.newBufferedReader(CONFIG.toPath())) {
+                    loaded.load(in);
+                } catch (IOException | IllegalArgumentException e) {
+                    throw error("Cannot read %s", CONFIG.getPath());
+                }
+            }
+            config = loaded;
+            configTime = time;
+        }
+        return config;
+    }
+
+    /* Setting PROPERTY as a number, clamped to MIN..MAX, or FALLBACK if it is
+     * not set or not a number. */
+    static long number(String property, long fallback, long min, long max) {
+        String value = get(property);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Math.max(min, Math.min(max, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
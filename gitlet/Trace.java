@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import static gitlet.Utils.*;
+
+/** Per-command timers and counters. Off unless the command starts with
+ *  --trace (a summary on stderr) or --trace=FILE (a Chrome trace, viewable in
+ *  chrome://tracing or Perfetto), or the GITLET_TRACE environment variable is
+ *  "1" or a file name. While off, span() returns a shared no-op and count()
+ *  returns at once, so instrumented code pays one field read.
+ *
+ *  Usage:
+ *      try (Trace.Span span = Trace.span("splitPoint")) { ... }
+ *      Trace.count("bytes.read", data.length); */
+public class Trace {
+
+    // the no-op span handed out while tracing is off
+    private static final Span OFF = new Span(null, 0);
+
+    private static volatile boolean enabled;
+    private static String output; // null for a summary on stderr
+    private static long origin;
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentLinkedQueue<Event> EVENTS = new ConcurrentLinkedQueue<>();
+
+    // one finished span
+    private static class Event {
+        final String name;
+        final long thread;
+        final long start;
+        final long nanos;
+
+        Event(String name, long thread, long start, long nanos) {
+            this.name = name;
+            this.thread = thread;
+            this.start = start;
+            this.nanos = nanos;
+        }
+    }
+
+    /** A timed region; closing it records how long it took. */
+    static final class Span implements AutoCloseable {
+        private final String name;
+        private final long start;
+
+        private Span(String name, long start) {
+            this.name = name;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            if (name != null) {
+                EVENTS.add(new Event(name, Thread.currentThread().getId(), start,
+                    System.nanoTime() - start));
+            }
+        }
+    }
+
+    static boolean enabled() {
+        return enabled;
+    }
+
+    static Span span(String name) {
+        if (!enabled) {
+            return OFF;
+        }
+        return new Span(name, System.nanoTime());
+    }
+
+    static void count(String counter, long amount) {
+        if (!enabled) {
+            return;
+        }
+        COUNTERS.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+
+    /* ARGS with GITLET_TRACE turned into the equivalent leading flag, so the
+     * setting travels with the command when a daemon runs it. */
+    static String[] withEnvironment(String[] args) {
+        String setting = System.getenv("GITLET_TRACE");
+        if (setting == null || setting.isEmpty() || setting.equals("0")
+            || (args.length > 0 && args[0].startsWith("--trace"))) {
+            return args;
+        }
+        String[] traced = new String[args.length + 1];
+        traced[0] = setting.equals("1") ? "--trace" : "--trace=" + setting;
+        System.arraycopy(args, 0, traced, 1, args.length);
+        return traced;
+    }
+
+    // turns tracing on if ARGS start with --trace or --trace=FILE; returns the rest of ARGS
+    static String[] configure(String[] args) {
+        if (args.length == 0 || !(args[0].equals("--trace") || args[0].startsWith("--trace="))) {
+            return args;
+        }
+        output = args[0].equals("--trace") ? null : args[0].substring("--trace=".length());
+        COUNTERS.clear();
+        EVENTS.clear();
+        origin = System.nanoTime();
+        enabled = true;
+        String[] rest = new String[args.length - 1];
+        System.arraycopy(args, 1, rest, 0, rest.length);
+        return rest;
+    }
+
+    // reports what was recorded since configure() and turns tracing off
+    static void finish() {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        if (output == null) {
+            printSummary();
+        } else {
+            writeChromeTrace(join(Repository.CWD, output));
+        }
+    }
+
+    private static void printSummary() {
+        Map<String, long[]> spans = new TreeMap<>(); // name -> {count, total nanos}
+        for (Event event : EVENTS) {
+            long[] totals = spans.computeIfAbsent(event.name, k -> new long[2]);
+            totals[0] += 1;
+            totals[1] += event.nanos;
+        }
+        System.err.println("=== Trace ===");
+        for (Map.Entry<String, long[]> span : spans.entrySet()) {
+            System.err.printf("%-32s %8d calls %12.3f ms%n", span.getKey(),
+                span.getValue()[0], span.getValue()[1] / 1e6);
+        }
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            System.err.printf("%-32s %14d%n", counter.getKey(), counter.getValue().sum());
+        }
+    }
+
+    // the Trace Event Format: complete ("X") events plus a final counter ("C") event
+    private static void writeChromeTrace(File file) {
+        List<String> events = new ArrayList<>();
+        long end = 0;
+        for (Event event : EVENTS) {
+            long start = (event.start - origin) / 1000;
+            end = Math.max(end, start + event.nanos / 1000);
+            events.add(String.format("{\"name\":%s,\"ph\":\"X\",\"pid\":1,\"tid\":%d,"
+                + "\"ts\":%d,\"dur\":%d}", quote(event.name), event.thread, start,
+                event.nanos / 1000));
+        }
+        StringBuilder counters = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            counters.append(counters.length() == 0 ? "" : ",").append(quote(counter.getKey()))
+                .append(':').append(counter.getValue().sum());
+        }
+        events.add(String.format("{\"name\":\"counters\",\"ph\":\"C\",\"pid\":1,\"tid\":0,"
+            + "\"ts\":%d,\"args\":{%s}}", end, counters));
+        writeContents(file, "{\"traceEvents\":[\n" + String.join(",\n", events) + "\n]}\n");
+    }
+
+    // NAME as a JSON string, so a quote or backslash in a span or counter name is kept as text
+    private static String quote(String name) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : name.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A directory snapshot: a content-addressed object listing, in name order,
+ *  the blobs and subtrees directly inside one directory. Each entry is stored
+ *  as one line "<b|t> <hash> <name>"; in memory the hashes are ObjectIds, and
+ *  blob hashes go in and out of the path-based methods as hex Strings.
+ *
+ *  Because a tree is named by the hash of its entries, a directory that did not
+ *  change between two commits is the very same object in both. Updating a few
+ *  paths only rewrites the trees on the way from the root to those paths, and
+ *  diff skips every subtree whose hash is equal on both sides. */
+public class Tree {
+
+    static final char BLOB = 'b';
+    static final char TREE = 't';
+
+    // one line of a tree: a blob or a subtree
+    static class Entry {
+        final char kind;
+        final ObjectId id;
+
+        Entry(char kind, ObjectId id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        boolean isTree() {
+            return kind == TREE;
+        }
+    }
+
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    // trees already parsed; shared, so a tree read from here is never changed
+    private static final ObjectCache<ObjectId, Tree> CACHE = new ObjectCache<>("tree", 1 << 12);
+
+    static Tree read(ObjectId id) {
+        Tree tree = CACHE.get(id);
+        if (tree != null) {
+            return tree;
+        }
+        Trace.count("trees decoded", 1);
+        tree = new Tree();
+        byte[] data = ObjectStore.read(ObjectStore.TREE, id.toHex());
+        if (data == null) {
+            throw error("Missing tree %s", id);
+        }
+        String text = new String(data, StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            String line = text.substring(start, end);
+            tree.entries.put(line.substring(UID_LENGTH + 3),
+                    new Entry(line.charAt(0), ObjectId.fromHex(line.substring(2, UID_LENGTH + 2))));
+            start = end + 1;
+        }
+        CACHE.put(id, tree);
+        return tree;
+    }
+
+    // the entries of tree ID, in name order
+    static Collection<Entry> children(ObjectId id) {
+        return Collections.unmodifiableCollection(read(id).entries.values());
+    }
+
+    private byte[] encode() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            text.append(entry.getValue().kind).append(' ')
+                .append(entry.getValue().id.toHex()).append(' ')
+                .append(entry.getKey()).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // stores this tree and returns its id
+    ObjectId write() {
+        byte[] data = encode();
+        String hash = sha1("tree", data);
+        ObjectStore.write(ObjectStore.TREE, hash, data);
+        return ObjectId.fromHex(hash);
+    }
+
+    /* Stores a copy of the tree ID with every blob entry found in RENAMES
+     * pointing at the renamed blob, and returns the copy's id, or ID itself if
+     * nothing under it was renamed. Subtrees are copied the same way; COPIES
+     * maps each tree already visited to its copy, so shared subtrees are
+     * copied once. */
+    static ObjectId renameBlobs(ObjectId id, Map<String, String> renames,
+                                Map<ObjectId, ObjectId> copies) {
+        ObjectId copied = copies.get(id);
+        if (copied != null) {
+            return copied;
+        }
+        Tree tree = new Tree();
+        boolean changed = false;
+        for (Map.Entry<String, Entry> entry : read(id).entries.entrySet()) {
+            Entry old = entry.getValue();
+            Entry renamed = old;
+            if (old.isTree()) {
+                ObjectId child = renameBlobs(old.id, renames, copies);
+                renamed = child.equals(old.id) ? old : new Entry(TREE, child);
+            } else if (renames.containsKey(old.id.toHex())) {
+                renamed = new Entry(BLOB, ObjectId.fromHex(renames.get(old.id.toHex())));
+            }
+            changed |= renamed != old;
+            tree.entries.put(entry.getKey(), renamed);
+        }
+        copied = changed ? tree.write() : id;
+        copies.put(id, copied);
+        return copied;
+    }
+
+    // builds and stores the trees for FILES (path -> blob hash); returns the root's id
+    static ObjectId build(Map<String, String> files) {
+        return update(new Tree().write(), files);
+    }
+
+    /* Returns the root of a copy of the tree ROOT with every path in CHANGES
+     * set to its blob hash, or removed if it maps to null. Only trees on the
+     * way to a changed path are read and rewritten. */
+    static ObjectId update(ObjectId root, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return root;
+        }
+        Tree tree = new Tree();
+        tree.entries.putAll(read(root).entries);
+        // group the changes by their first path component
+        Map<String, Map<String, String>> nested = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    tree.entries.remove(path);
+                } else {
+                    tree.entries.put(path, new Entry(BLOB, ObjectId.fromHex(change.getValue())));
+                }
+            } else {
+                nested.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                      .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : nested.entrySet()) {
+            Entry old = tree.entries.get(dir.getKey());
+            ObjectId child = old != null && old.isTree() ? old.id : new Tree().write();
+            ObjectId updated = update(child, dir.getValue());
+            if (read(updated).entries.isEmpty()) {
+                tree.entries.remove(dir.getKey());
+            } else {
+                tree.entries.put(dir.getKey(), new Entry(TREE, updated));
+            }
+        }
+        return tree.write();
+    }
+
+    // blob hash stored at PATH under ROOT, or null; reads one tree per path component
+    static String lookup(ObjectId root, String path) {
+        Tree tree = read(root);
+        String[] parts = path.split("/");
+        for (int i = 0; i < parts.length - 1; i++) {
+            Entry entry = tree.entries.get(parts[i]);
+            if (entry == null || !entry.isTree()) {
+                return null;
+            }
+            tree = read(entry.id);
+        }
+        Entry entry = tree.entries.get(parts[parts.length - 1]);
+        if (entry == null || entry.isTree()) {
+            return null;
+        }
+        return entry.id.toHex();
+    }
+
+    // every file under ROOT, as path -> blob hash
+    static Map<String, String> flatten(ObjectId root) {
+        Map<String, String> files = new TreeMap<>();
+        flatten(root, "", files);
+        return files;
+    }
+
+    private static void flatten(ObjectId root, String prefix, Map<String, String> files) {
+        for (Map.Entry<String, Entry> entry : read(root).entries.entrySet()) {
+            String path = prefix + entry.getKey();
+            if (entry.getValue().isTree()) {
+                flatten(entry.getValue().id, path + "/", files);
+            } else {
+                files.put(path, entry.getValue().id.toHex());
+            }
+        }
+    }
+
+    /* Returns every path whose blob differs between the trees FROM and TO, as
+     * path -> {blob in FROM, blob in TO}, with null for a missing side.
+     * Subtrees with the same hash on both sides are skipped without reading. */
+    @SuppressWarnings("try")
+    static Map<String, String[]> diff(ObjectId from, ObjectId to) {
+        Map<String, String[]> changes = new TreeMap<>();
+        try (Trace.Span span = Trace.span("tree diff")) {
+            diff(from, to, "", changes);
+        }
+        return changes;
+    }
+
+    private static void diff(ObjectId from, ObjectId to, String prefix,
+                             Map<String, String[]> changes) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        Tree a = from == null ? new Tree() : read(from);
+        Tree b = to == null ? new Tree() : read(to);
+        Set<String> names = new TreeSet<>(a.entries.keySet());
+        names.addAll(b.entries.keySet());
+        for (String name : names) {
+            Entry entryA = a.entries.get(name);
+            Entry entryB = b.entries.get(name);
+            ObjectId treeA = entryA != null && entryA.isTree() ? entryA.id : null;
+            ObjectId treeB = entryB != null && entryB.isTree() ? entryB.id : null;
+            ObjectId blobA = entryA != null && !entryA.isTree() ? entryA.id : null;
+            ObjectId blobB = entryB != null && !entryB.isTree() ? entryB.id : null;
+            if (treeA != null || treeB != null) {
+                diff(treeA, treeB, prefix + name + "/", changes);
+            }
+            if ((blobA != null || blobB != null)
+                    && (blobA == null || !blobA.equals(blobB))) {
+                changes.put(prefix + name, new String[] {hex(blobA), hex(blobB)});
+            }
+        }
+    }
+
+    private static String hex(ObjectId id) {
+        return id == null ? null : id.toHex();
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,13 +10,15 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -36,25 +39,18 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return toHex(md.digest());
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -98,7 +94,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] contents = Files.readAllBytes(file.toPath());
+            Trace.count("bytes read", contents.length);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -124,11 +122,10 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                Trace.count("bytes written", bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -157,6 +154,79 @@ class Utils {
         writeContents(file, serialize(obj));
     }
 
+    /* STREAMING FILE CONTENTS */
+
+    /** Size of the buffer used to stream file contents. */
+    static final int STREAM_BUFFER = 64 * 1024;
+
+    /** Returns the SHA-1 hash of the contents of FILE, reading FILE
+     *  through a fixed-size buffer so that memory use does not depend on
+     *  the size of FILE. */
+    static String sha1(File file) {
+        MessageDigest md = sha1Digest();
+        ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER);
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer.array(), 0, buffer.limit());
+                Trace.count("bytes hashed", buffer.limit());
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Writes the remaining bytes of DATA to DEST, creating or overwriting
+     *  DEST.  Throws IllegalArgumentException in case of problems. */
+    static void writeContents(File dest, ByteBuffer data) {
+        try (FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Trace.count("bytes written", data.remaining());
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** SHA-1 digests are costly to look up, so each thread keeps one for
+     *  sha1(Object...) and one for the streaming hashes. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+        ThreadLocal.withInitial(Utils::newSha1Digest);
+    private static final ThreadLocal<MessageDigest> STREAM_DIGEST =
+        ThreadLocal.withInitial(Utils::newSha1Digest);
+
+    private static MessageDigest newSha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns this thread's streaming SHA-1 MessageDigest, reset. A stream
+     *  must be digested before the next call on the same thread. */
+    static MessageDigest sha1Digest() {
+        MessageDigest md = STREAM_DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Returns DIGEST as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] digest) {
+        char[] result = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
@@ -220,6 +290,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from the serialized bytes DATA,
+     *  casting it to EXPECTEDCLASS.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] data,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(data));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -0,0 +1,57 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** A bounded pool for file-level work (hashing, storing and writing blobs).
+ *  The number of threads comes from the gitlet.threads system property or the
+ *  GITLET_THREADS environment variable, and defaults to the number of cores;
+ *  1 runs everything on the calling thread. */
+public class Workers {
+
+    static int count() {
+        return (int) Settings.number("gitlet.threads", Runtime.getRuntime().availableProcessors(),
+            1, Integer.MAX_VALUE);
+    }
+
+    /* Runs every task and returns their results in order. Tasks run on at most
+     * count() threads; the first task to fail has its exception rethrown here
+     * once all tasks have finished. */
+    static <T> List<T> run(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        int threads = Math.min(count(), tasks.size());
+        if (threads <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            }
+            return results;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException("Interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause().getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+}